@@ -0,0 +1,83 @@
+package com.helipy.text.hfberttokenizer;
+
+import java.text.Normalizer;
+
+/**
+ * 逐字符去音调表: 每个 BMP 字符 NFD 分解后去掉 \p{Mn} 的结果, 去音调时不必对整个词调用 Normalizer.
+ * 第一次使用时才初始化, 只处理 ASCII 或不需要去音调的场景不会加载.
+ *
+ * @author wangchuangfeng
+ */
+final class AccentTable {
+    /**
+     * stripAccent() 的返回值: 去音调后该字符被删除, 例如组合附加符号 U+0301
+     */
+    static final char REMOVED = 0;
+    /**
+     * stripAccent() 的返回值: 去音调结果不是单个字符, 或含有不能删除的组合字符(可能受 NFD 重排序影响), 需要对整个词调用 Normalizer
+     */
+    static final char UNSUPPORTED = 0xFFFF;
+
+    private static final char[] STRIPPED = new char[Character.MAX_VALUE + 1];
+
+    static {
+        // 字符以换行分隔拼成一个字符串, 只调用一次 Normalizer: 换行符不可分解且组合类为 0,
+        // NFD 不会跨越它重排序, 两个换行之间即为该字符自身的分解结果.
+        // 中日韩统一表意文字和私用区没有分解, 也没有组合字符, 不必检查; 韩文音节分解为多个字母, 直接标记为 UNSUPPORTED
+        StringBuilder all = new StringBuilder(0x8000);
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            STRIPPED[c] = c >= 0xAC00 && c <= 0xD7A3 ? UNSUPPORTED : (char) c;
+            if (needsCheck(c)) {
+                all.append((char) c).append('\n');
+            }
+        }
+        String normalized = Normalizer.normalize(all, Normalizer.Form.NFD);
+        int pos = 0;
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (!needsCheck(c)) {
+                continue;
+            }
+            int end = normalized.indexOf('\n', pos);
+            STRIPPED[c] = strip(normalized, pos, end);
+            pos = end + 1;
+        }
+    }
+
+    private AccentTable() {
+    }
+
+    private static boolean needsCheck(int c) {
+        if (c == 0 || c == '\n' || c == UNSUPPORTED) {
+            return false;
+        }
+        return c < 0x3400 || (c >= 0xA000 && c < 0xAC00) || (c > 0xD7A3 && c < 0xD800) || c >= 0xF900;
+    }
+
+    /**
+     * 一个字符的分解结果 decomposed[start, end) 去掉 \p{Mn}
+     */
+    private static char strip(String decomposed, int start, int end) {
+        char result = REMOVED;
+        for (int i = start; i < end; i++) {
+            char c = decomposed.charAt(i);
+            if (CharTable.isAccent(c)) {
+                continue;
+            }
+            int type = Character.getType(c);
+            if (result != REMOVED || type == Character.COMBINING_SPACING_MARK || type == Character.ENCLOSING_MARK) {
+                return UNSUPPORTED;
+            }
+            result = c;
+        }
+        return result;
+    }
+
+    /**
+     * 单个字符去音调, 结果与 NFD 分解后去掉 \p{Mn} 相同
+     *
+     * @return 去音调后的字符, 被删除时返回 REMOVED, 无法逐字符处理时返回 UNSUPPORTED
+     */
+    static char stripAccent(char c) {
+        return STRIPPED[c];
+    }
+}
@@ -1,120 +1,336 @@
 package com.helipy.text.hfberttokenizer;
 
-import com.google.common.base.Joiner;
-
 import java.text.Normalizer;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * java 重写的 huggingface transformers BasicTokenizer
  * https://github.com/huggingface/transformers/blob/v4.26.0/src/transformers/models/bert/tokenization_bert.py#L371
+ * <p>
+ * 线程安全: 构造完成后只读, 可被多个线程并发调用.
  *
  * @author wangchuangfeng
  */
 @SuppressWarnings("PMD")
 public class BasicTokenizer {
-    private boolean doLowerCase;
-    private Set<String> neverSplitTokens;
-    private boolean tokenizeChineseChars;
-    private Boolean stripAccents;
-
+    private final boolean doLowerCase;
+    private final Set<String> neverSplitTokens;
+    private final boolean tokenizeChineseChars;
+    private final Boolean stripAccents;
     /**
-     * 标点字符
+     * 扫描时逐字符全角转半角, 见 Preprocess.full2Half()
      */
-    private Pattern punctuationPattern = Pattern.compile("\\pP");
+    private final boolean full2Half;
     /**
-     * 分隔字符
+     * 与 huggingface transformers 一致, 按 unicode 码点处理: 中文字符使用 _is_chinese_char 的全部范围(含辅助平面),
+     * 辅助平面字符也做格式字符删除, 标点切分和去音调. 默认 false, 与原有行为一致
      */
-    private Pattern separatorPattern = Pattern.compile("\\pZ");
-    /**
-     * 控制字符
-     */
-    private Pattern controlPattern = Pattern.compile("\\pC");
+    private final boolean hfCompatible;
+
     /**
-     * 空白字符
+     * 每个线程复用的词缓冲区, 避免每次调用都分配
      */
-    private Pattern spacePattern = Pattern.compile("\\s");
+    private static final ThreadLocal<StringBuilder> SCRATCH = ThreadLocal.withInitial(() -> new StringBuilder(64));
     /**
-     * 音调字符
+     * 超过该容量的缓冲区用完后丢弃, 避免超长文本的缓冲区一直被线程持有
      */
-    private Pattern accentPattern = Pattern.compile("\\p{Mn}");
+    private static final int MAX_SCRATCH_CAPACITY = 8192;
+
     /**
-     * 中文字符
+     * ASCII 字符分类, 由 CharTable 生成, ASCII 快速路径只需一次数组读取
      */
-    private Pattern chineseCharPattern = Pattern.compile("[\u4e00-\u9fa5]|[\u3400-\u4dbf]");
+    private static final byte ASCII_WORD = 0;
+    private static final byte ASCII_SPACE = 1;
+    private static final byte ASCII_CONTROL = 2;
+    private static final byte ASCII_PUNCTUATION = 3;
+    private static final byte[] ASCII_CLASS = new byte[128];
+
+    static {
+        for (char c = 0; c < ASCII_CLASS.length; c++) {
+            if (c == 0 || CharTable.isControl(c)) {
+                ASCII_CLASS[c] = ASCII_CONTROL;
+            } else if (CharTable.isWhiteSpace(c)) {
+                ASCII_CLASS[c] = ASCII_SPACE;
+            } else if (CharTable.isPunctuation(c)) {
+                ASCII_CLASS[c] = ASCII_PUNCTUATION;
+            } else {
+                ASCII_CLASS[c] = ASCII_WORD;
+            }
+        }
+    }
 
     public BasicTokenizer() {
         this(true, new HashSet<>(), true, null);
     }
 
     public BasicTokenizer(boolean doLowerCase, Set<String> neverSplit, boolean tokenizeChineseChars, Boolean stripAccents) {
+        this(doLowerCase, neverSplit, tokenizeChineseChars, stripAccents, false);
+    }
+
+    public BasicTokenizer(boolean doLowerCase, Set<String> neverSplit, boolean tokenizeChineseChars, Boolean stripAccents,
+                          boolean full2Half) {
+        this(doLowerCase, neverSplit, tokenizeChineseChars, stripAccents, full2Half, false);
+    }
+
+    public BasicTokenizer(boolean doLowerCase, Set<String> neverSplit, boolean tokenizeChineseChars, Boolean stripAccents,
+                          boolean full2Half, boolean hfCompatible) {
         this.doLowerCase = doLowerCase;
         this.neverSplitTokens = neverSplit;
         this.tokenizeChineseChars = tokenizeChineseChars;
         this.stripAccents = stripAccents;
+        this.full2Half = full2Half;
+        this.hfCompatible = hfCompatible;
     }
 
-    public List<String> tokenize(String text, Set<String> neverSplit) {
-        Set<String> neverSplitSet;
-        if (neverSplit != null && !neverSplit.isEmpty()) {
-            neverSplitSet = new HashSet<>(neverSplit);
-        } else {
-            neverSplitSet = new HashSet<>(neverSplitTokens);
+    public boolean isDoLowerCase() {
+        return doLowerCase;
+    }
+
+    /**
+     * from 及之后第一个可以把文本分成两段分别分词, 结果与整段分词相同的位置, 没有时返回 to:
+     * 空白, 以及切分中文字符时的中文字符, 它们前后一定是词的边界.
+     * 分别转小写时只有空白处与整段转小写相同, 见 nextWhitespace()
+     */
+    int nextBoundary(CharSequence text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (isBoundaryWhitespace(c) || (tokenizeChineseChars && isChineseChar(c))) {
+                return i;
+            }
         }
-        String cleanText = cleanText(text);
+        return to;
+    }
 
-        if (tokenizeChineseChars) {
-            cleanText = tokenizeChineseChars(cleanText);
+    /**
+     * from 及之后第一个空白的位置, 没有时返回 to. String.toLowerCase() 按 BreakIterator 的词边界判断词尾的 Σ,
+     * 部分中文字符(如扩展 A 区)在词内, 空白前后一定是词边界, 在空白处分段转小写与整段转小写结果相同
+     */
+    static int nextWhitespace(CharSequence text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (isBoundaryWhitespace(text.charAt(i))) {
+                return i;
+            }
         }
-        List<String> origTokens = whiteSpaceTokenize(cleanText);
+        return to;
+    }
+
+    static boolean isBoundaryWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
 
+    public List<String> tokenize(String text, Set<String> neverSplit) {
         List<String> splitTokens = new ArrayList<>();
-        for (String token : origTokens) {
-            if (!neverSplitSet.contains(token)) {
-                if (doLowerCase) {
-                    token = token.toLowerCase();
-                    if (!Boolean.FALSE.equals(stripAccents)) {
-                        token = runStripAccents(token);
-                    }
-                } else if (Boolean.TRUE.equals(stripAccents)) {
-                    token = runStripAccents(token);
+        tokenize(text, 0, text.length(), neverSplit,
+                (buffer, start, end) -> splitTokens.add(buffer.subSequence(start, end).toString()));
+        return splitTokens;
+    }
+
+    /**
+     * 单遍扫描完成: 全角转半角(可选), 清洗(去除控制字符, 空白归一), 中文字符切分, 空白切分, 转小写/去音调, 标点切分.
+     * 结果与 tokenize(String, Set) 相同, 但不生成中间字符串, 每个 token 以 buffer 中的 [start, end) 区间交给 consumer.
+     * buffer 是线程内复用的缓冲区, 回调返回后会被修改, consumer 不能持有它.
+     * neverSplit 按引用使用, 不会被复制或修改
+     *
+     * @param text       待分词文本
+     * @param from       起始位置(含)
+     * @param to         结束位置(不含)
+     * @param neverSplit 不切分的 token, 为空时使用构造时指定的 neverSplit
+     * @param consumer   接收切分结果
+     */
+    public void tokenize(CharSequence text, int from, int to, Set<String> neverSplit, TokenConsumer consumer) {
+        tokenize(text, from, to, neverSplit, null, consumer);
+    }
+
+    /**
+     * 同时记录每个字符在 text 中的位置. offsets 为 null 时与 tokenize(CharSequence, int, int, Set, TokenConsumer) 相同.
+     * <p>
+     * 回调期间 offsets.get(2 * k), offsets.get(2 * k + 1) 为 buffer 第 k 个字符在 text 中的 [start, end),
+     * 即 buffer 的 [start, end) 区间对应 text 的 [offsets.get(2 * start), offsets.get(2 * end - 1)).
+     * 转小写/去音调改变了词的长度时(例如 NFD 分解韩文), 词内每个字符都对应整个词的区间.
+     * 调用时 offsets 需为空, 返回时为空
+     */
+    public void tokenize(CharSequence text, int from, int to, Set<String> neverSplit, IntList offsets,
+                         TokenConsumer consumer) {
+        Set<String> neverSplitSet = neverSplit != null && !neverSplit.isEmpty() ? neverSplit : neverSplitTokens;
+        boolean simpleLowerCase = isSimpleLowerCaseLocale();
+        StringBuilder word = SCRATCH.get();
+        if (word.length() != 0) {
+            // consumer 中重入调用时, 外层的缓冲区正在使用
+            word = new StringBuilder();
+        }
+        try {
+            // 先走 ASCII 快速路径, 遇到第一个非 ASCII 字符时从该位置转入通用路径, 已累积的词交给通用路径继续处理.
+            // tr/az/lt 语言环境下 ASCII 字母的小写规则也不同, 直接走通用路径
+            int i = simpleLowerCase ? scanAscii(text, from, to, neverSplitSet, word, offsets, consumer) : from;
+            if (i < to) {
+                scan(text, i, to, neverSplitSet, simpleLowerCase, word, offsets, consumer);
+            }
+        } finally {
+            word.setLength(0);
+            if (offsets != null) {
+                offsets.clear();
+            }
+            if (word.capacity() > MAX_SCRATCH_CAPACITY) {
+                SCRATCH.remove();
+            }
+        }
+    }
+
+    private void scan(CharSequence text, int from, int to, Set<String> neverSplitSet, boolean simpleLowerCase,
+                      StringBuilder word, IntList offsets, TokenConsumer consumer) {
+        for (int i = from; i < to; i++) {
+            char c = full2Half ? Preprocess.full2Half(text.charAt(i)) : text.charAt(i);
+            if (Character.isSurrogate(c)) {
+                if (hfCompatible) {
+                    i = scanSupplementary(text, i, to, neverSplitSet, simpleLowerCase, word, offsets, consumer);
+                    continue;
                 }
+                // utf-16 2 字节无法表示的字符,不参与后续的判断 (一般占 2 个 char)
+                word.append(c);
+                addOffset(offsets, i, i + 1);
+                continue;
+            }
+            if (c == 0 || c == 0xfffd || CharTable.isControl(c)) {
+                continue;
+            }
+            if (CharTable.isWhiteSpace(c)) {
+                flushWord(word, neverSplitSet, simpleLowerCase, offsets, consumer);
+            } else if (tokenizeChineseChars && isChineseChar(c)) {
+                flushWord(word, neverSplitSet, simpleLowerCase, offsets, consumer);
+                word.append(c);
+                addOffset(offsets, i, i + 1);
+                flushWord(word, neverSplitSet, simpleLowerCase, offsets, consumer);
+            } else {
+                word.append(c);
+                addOffset(offsets, i, i + 1);
             }
-            splitTokens.addAll(runSplitOnPunc(token, new HashSet<>(neverSplitSet)));
         }
-        return whiteSpaceTokenize(Joiner.on(" ").join(splitTokens));
+        flushWord(word, neverSplitSet, simpleLowerCase, offsets, consumer);
     }
 
-    private boolean isControl(char c) {
-        if (c == '\t' || c == '\n' || c == '\r') {
-            return false;
+    /**
+     * hfCompatible 模式下处理 i 处的辅助平面字符. 与 transformers 的 _is_control 一致, 删除格式字符(Cf)和私用区字符(Co).
+     * 未分配字符(Cn)有意保留, 与 transformers 不一致: java 的 unicode 版本可能比 python 旧,
+     * python 中已分配的新 emoji 在 java 中是未分配字符, 删除会丢掉这些字符. 不成对的代理字符原样保留
+     *
+     * @return 该字符最后一个 char 的位置
+     */
+    private int scanSupplementary(CharSequence text, int i, int to, Set<String> neverSplitSet, boolean simpleLowerCase,
+                                  StringBuilder word, IntList offsets, TokenConsumer consumer) {
+        char high = text.charAt(i);
+        if (!Character.isHighSurrogate(high) || i + 1 >= to || !Character.isLowSurrogate(text.charAt(i + 1))) {
+            word.append(high);
+            addOffset(offsets, i, i + 1);
+            return i;
+        }
+        char low = text.charAt(i + 1);
+        int codePoint = Character.toCodePoint(high, low);
+        int type = Character.getType(codePoint);
+        if (type == Character.FORMAT || type == Character.PRIVATE_USE) {
+            return i + 1;
+        }
+        if (tokenizeChineseChars && isHfChineseChar(codePoint)) {
+            flushWord(word, neverSplitSet, simpleLowerCase, offsets, consumer);
+            word.append(high).append(low);
+            addOffset(offsets, i, i + 2);
+            addOffset(offsets, i, i + 2);
+            flushWord(word, neverSplitSet, simpleLowerCase, offsets, consumer);
+        } else {
+            word.append(high).append(low);
+            addOffset(offsets, i, i + 2);
+            addOffset(offsets, i, i + 2);
         }
-        return controlPattern.matcher(String.valueOf(c)).matches();
+        return i + 1;
     }
 
-    private boolean isPunctuation(char c) {
-        if ((c >= 33 && c <= 47) || (c >= 58 && c <= 64)
-                || (c >= 91 && c <= 96) || (c >= 123 && c <= 126)) {
-            return true;
+    /**
+     * ASCII 快速路径: 不做全角转半角/代理字符/中文字符判断, 词内不做 NFD 分解, 转小写只需对 A-Z 加 32
+     *
+     * @return 第一个非 ASCII 字符的位置, 全部为 ASCII 时返回 to
+     */
+    private int scanAscii(CharSequence text, int from, int to, Set<String> neverSplitSet, StringBuilder word,
+                          IntList offsets, TokenConsumer consumer) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                return i;
+            }
+            byte type = ASCII_CLASS[c];
+            if (type == ASCII_SPACE) {
+                flushAsciiWord(word, neverSplitSet, offsets, consumer);
+            } else if (type != ASCII_CONTROL) {
+                word.append(c);
+                addOffset(offsets, i, i + 1);
+            }
         }
-        return punctuationPattern.matcher(String.valueOf(c)).matches();
+        flushAsciiWord(word, neverSplitSet, offsets, consumer);
+        return to;
     }
 
-    private boolean isWhiteSpace(char c) {
-        if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
-            return true;
+    /**
+     * 与 flushWord 相同, word 中只有 ASCII 字符
+     */
+    private void flushAsciiWord(StringBuilder word, Set<String> neverSplit, IntList offsets, TokenConsumer consumer) {
+        int length = word.length();
+        if (length == 0) {
+            return;
+        }
+        boolean keep = containsToken(neverSplit, word);
+        if (!keep && doLowerCase) {
+            for (int i = 0; i < length; i++) {
+                char c = word.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    word.setCharAt(i, (char) (c + 32));
+                }
+            }
+            keep = containsToken(neverSplit, word);
+        }
+        if (keep) {
+            consumer.accept(word, 0, length);
+        } else {
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                if (ASCII_CLASS[word.charAt(i)] == ASCII_PUNCTUATION) {
+                    if (start < i) {
+                        consumer.accept(word, start, i);
+                    }
+                    consumer.accept(word, i, i + 1);
+                    start = i + 1;
+                }
+            }
+            if (start < length) {
+                consumer.accept(word, start, length);
+            }
+        }
+        word.setLength(0);
+        if (offsets != null) {
+            offsets.clear();
+        }
+    }
+
+    private static void addOffset(IntList offsets, int start, int end) {
+        if (offsets != null) {
+            offsets.add(start);
+            offsets.add(end);
         }
-        return separatorPattern.matcher(String.valueOf(c)).matches();
+    }
+
+    /**
+     * 接收分词结果: buffer 中的 [start, end) 区间
+     */
+    @FunctionalInterface
+    public interface TokenConsumer {
+        void accept(CharSequence buffer, int start, int end);
     }
 
     private boolean isChineseChar(char c) {
+        if (hfCompatible) {
+            return isHfChineseChar(c);
+        }
         /* 与 transformers 有一部分 差异
                 if ((cp >= 0x4E00 && cp <= 0x9FFF) ||
                         (cp >= 0x3400 && cp <= 0x4DBF) ||
@@ -128,105 +344,239 @@ public class BasicTokenizer {
                 }
                 return false;
         */
-        return chineseCharPattern.matcher(String.valueOf(c)).matches();
+        return CharTable.isChineseChar(c);
     }
 
-    private String tokenizeChineseChars(String cleanText) {
-        StringBuilder outStrBuf = new StringBuilder();
-        for (int i = 0; i < cleanText.length(); i++) {
-            char c = cleanText.charAt(i);
-            if (isChineseChar(c)) {
-                outStrBuf.append(" ");
-                outStrBuf.append(c);
-                outStrBuf.append(" ");
-            } else {
-                outStrBuf.append(c);
+    /**
+     * 与 transformers _is_chinese_char 相同的码点范围
+     */
+    static boolean isHfChineseChar(int cp) {
+        return (cp >= 0x4E00 && cp <= 0x9FFF)
+                || (cp >= 0x3400 && cp <= 0x4DBF)
+                || (cp >= 0x20000 && cp <= 0x2A6DF)
+                || (cp >= 0x2A700 && cp <= 0x2B73F)
+                || (cp >= 0x2B740 && cp <= 0x2B81F)
+                || (cp >= 0x2B820 && cp <= 0x2CEAF)
+                || (cp >= 0xF900 && cp <= 0xFAFF)
+                || (cp >= 0x2F800 && cp <= 0x2FA1F);
+    }
+
+    /**
+     * 处理一个空白切分出的词: 转小写/去音调后按标点切分, 然后清空 word
+     */
+    private void flushWord(StringBuilder word, Set<String> neverSplit, boolean simpleLowerCase, IntList offsets,
+                           TokenConsumer consumer) {
+        if (word.length() == 0) {
+            return;
+        }
+        boolean keep = containsToken(neverSplit, word);
+        if (!keep && normalizeWord(word, simpleLowerCase, offsets)) {
+            if (word.length() == 0) {
+                return;
             }
+            keep = containsToken(neverSplit, word);
+        }
+        if (keep) {
+            consumer.accept(word, 0, word.length());
+        } else {
+            runSplitOnPunc(word, consumer);
+        }
+        word.setLength(0);
+        if (offsets != null) {
+            offsets.clear();
         }
-        return outStrBuf.toString();
     }
 
-    private String cleanText(String text) {
-        StringBuilder outStrBuf = new StringBuilder();
-        for (int i = 0; i < text.length(); i++) {
-            char c = text.charAt(i);
-            if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
-                // utf-16 2 字节无法表示的字符,不参与后续的判断 (一般占 2 个 char)
-                outStrBuf.append(c);
-                continue;
+    /**
+     * 原地转小写/去音调
+     *
+     * @return word 是否可能被修改
+     */
+    private boolean normalizeWord(StringBuilder word, boolean simpleLowerCase, IntList offsets) {
+        boolean lower = doLowerCase;
+        boolean strip = doLowerCase ? !Boolean.FALSE.equals(stripAccents) : Boolean.TRUE.equals(stripAccents);
+        if (!lower && !strip) {
+            return false;
+        }
+        // 逐字符转小写结果与 String.toLowerCase() 一致, 且每个字符都能查表去音调时, 原地处理.
+        // 查表得到的字符都不是组合字符, 组合字符都被删除, NFD 重排序不影响结果, 逐字符处理与整个词做 NFD 结果相同
+        boolean simple = !lower || simpleLowerCase;
+        for (int i = 0; i < word.length() && simple; i++) {
+            char c = word.charAt(i);
+            if (Character.isSurrogate(c) || (lower && (c == '\u03A3' || c == '\u0130'))) {
+                simple = false;
+            } else if (strip && AccentTable.stripAccent(lower ? Character.toLowerCase(c) : c) == AccentTable.UNSUPPORTED) {
+                simple = false;
             }
-            if (c == 0 || c == 0xfffd || isControl(c)) {
-                continue;
+        }
+        if (simple) {
+            int length = 0;
+            for (int i = 0; i < word.length(); i++) {
+                char c = word.charAt(i);
+                if (lower) {
+                    c = Character.toLowerCase(c);
+                }
+                if (strip) {
+                    c = AccentTable.stripAccent(c);
+                }
+                if (c != AccentTable.REMOVED) {
+                    if (offsets != null) {
+                        offsets.set(2 * length, offsets.get(2 * i));
+                        offsets.set(2 * length + 1, offsets.get(2 * i + 1));
+                    }
+                    word.setCharAt(length++, c);
+                }
             }
-            if (isWhiteSpace(c)) {
-                outStrBuf.append(" ");
-            } else {
-                outStrBuf.append(c);
+            word.setLength(length);
+            if (offsets != null) {
+                offsets.truncate(2 * length);
             }
+            return true;
         }
-        return outStrBuf.toString();
+
+        String source = word.toString();
+        String token = lower ? source.toLowerCase() : source;
+        word.setLength(0);
+        if (strip) {
+            runStripAccents(token, word);
+        } else {
+            word.append(token);
+        }
+        if (offsets != null) {
+            alignOffsets(source, word, lower, strip, offsets);
+        }
+        return true;
     }
 
-    private List<String> whiteSpaceTokenize(String text) {
-        List<String> result = new ArrayList<>();
-        if (null == text) {
-            return result;
+    /**
+     * 整词转小写/去音调后, 重新计算 word 中每个字符在原文本中的 [start, end): 对 source 逐码点转小写/去音调,
+     * 记录每个输出字符来自哪个码点. 逐码点处理的结果与整词处理不同时(除词尾的 Σ 外上下文相关的规则, 或 NFD 跨码点重排序),
+     * 每个字符都对应整个词
+     *
+     * @param offsets 输入为 source 中每个字符的区间, 输出为 word 中每个字符的区间
+     */
+    private void alignOffsets(String source, StringBuilder word, boolean lower, boolean strip, IntList offsets) {
+        int[] aligned = new int[word.length() * 2];
+        StringBuilder piece = new StringBuilder();
+        int pos = 0;
+        boolean matched = true;
+        for (int i = 0; i < source.length() && matched; ) {
+            int next = i + Character.charCount(source.codePointAt(i));
+            String lowered = lower ? source.substring(i, next).toLowerCase() : source.substring(i, next);
+            piece.setLength(0);
+            if (strip) {
+                runStripAccents(lowered, piece);
+            } else {
+                piece.append(lowered);
+            }
+            matched = pos + piece.length() <= word.length();
+            for (int k = 0; k < piece.length() && matched; k++) {
+                char c = piece.charAt(k);
+                // 词尾的 Σ 整词转小写为 ς, 单独转小写为 σ
+                matched = c == word.charAt(pos) || c == '\u03C3' && word.charAt(pos) == '\u03C2';
+                aligned[2 * pos] = offsets.get(2 * i);
+                aligned[2 * pos + 1] = offsets.get(2 * next - 1);
+                pos++;
+            }
+            i = next;
+        }
+        int wordStart = offsets.get(0);
+        int wordEnd = offsets.get(offsets.size() - 1);
+        offsets.clear();
+        if (matched && pos == word.length()) {
+            offsets.addAll(aligned);
+            return;
         }
-        text = text.trim();
-        String[] tokens = spacePattern.split(text);
-        result = Arrays.stream(tokens).filter(str -> !str.isEmpty()).collect(Collectors.toList());
+        for (int i = 0; i < word.length(); i++) {
+            offsets.add(wordStart);
+            offsets.add(wordEnd);
+        }
+    }
 
-        return result;
+    /**
+     * String.toLowerCase() 在 tr/az/lt 语言环境下有特殊规则, 不能逐字符转换
+     */
+    private static boolean isSimpleLowerCaseLocale() {
+        String language = Locale.getDefault().getLanguage();
+        return !"tr".equals(language) && !"az".equals(language) && !"lt".equals(language);
     }
 
+    private static boolean containsToken(Set<String> tokens, CharSequence word) {
+        return containsToken(tokens, word, 0, word.length());
+    }
 
-    private List<String> runSplitOnPunc(String token, Set<String> neverSplit) {
-        if (neverSplit != null && neverSplit.contains(token)) {
-            return Collections.singletonList(token);
+    /**
+     * tokens 中是否有与 text 的 [start, end) 区间相同的字符串, 不生成子串
+     */
+    static boolean containsToken(Set<String> tokens, CharSequence text, int start, int end) {
+        if (tokens == null || tokens.isEmpty()) {
+            return false;
+        }
+        int length = end - start;
+        for (String token : tokens) {
+            if (token.length() != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && token.charAt(i) == text.charAt(start + i)) {
+                i++;
+            }
+            if (i == length) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        List<List<Character>> charHoldList = new ArrayList<>();
+    private void runSplitOnPunc(CharSequence token, TokenConsumer consumer) {
+        int start = 0;
         int length = token.length();
-        int i = 0;
-        boolean startNewWord = true;
-        while (i < length) {
-            char c = token.charAt(i);
-            if (isPunctuation(c)) {
-                List<Character> list = Arrays.asList(c);
-                charHoldList.add(list);
-                startNewWord = true;
+        for (int i = 0; i < length; i++) {
+            int end = i + 1;
+            boolean punctuation;
+            if (hfCompatible && Character.isHighSurrogate(token.charAt(i)) && end < length
+                    && Character.isLowSurrogate(token.charAt(end))) {
+                punctuation = CharTable.isPunctuation(Character.toCodePoint(token.charAt(i), token.charAt(end)));
+                end++;
             } else {
-                if (startNewWord) {
-                    charHoldList.add(new ArrayList<>());
+                punctuation = CharTable.isPunctuation(token.charAt(i));
+            }
+            if (punctuation) {
+                if (start < i) {
+                    consumer.accept(token, start, i);
                 }
-                startNewWord = false;
-                charHoldList.get(charHoldList.size() - 1).add(c);
+                consumer.accept(token, i, end);
+                start = end;
             }
-            i += 1;
+            i = end - 1;
         }
-
-        List<String> res = new ArrayList<>();
-        for (List<Character> characters : charHoldList) {
-            StringBuilder sb = new StringBuilder();
-            for (Character character : characters) {
-                sb.append(character);
-            }
-            res.add(sb.toString());
+        if (start < length) {
+            consumer.accept(token, start, length);
         }
-        return res;
     }
 
-    private String runStripAccents(String text) {
+    /**
+     * NFD 分解后去掉音调字符, 结果追加到 output
+     */
+    private void runStripAccents(String text, StringBuilder output) {
         String normalizedText = Normalizer.normalize(text, Normalizer.Form.NFD);
-        StringBuilder sb = new StringBuilder();
         for (int i = 0; i < normalizedText.length(); ++i) {
             char c = normalizedText.charAt(i);
-            if (accentPattern.matcher(String.valueOf(c)).matches()) {
+            if (hfCompatible && Character.isHighSurrogate(c)) {
+                int codePoint = normalizedText.codePointAt(i);
+                if (Character.isSupplementaryCodePoint(codePoint)) {
+                    if (!CharTable.isAccent(codePoint)) {
+                        output.appendCodePoint(codePoint);
+                    }
+                    i++;
+                    continue;
+                }
+            }
+            if (CharTable.isAccent(c)) {
                 continue;
             }
-            sb.append(c);
+            output.append(c);
         }
-        return sb.toString();
     }
 
 }
@@ -0,0 +1,59 @@
+package com.helipy.text.hfberttokenizer;
+
+/**
+ * 批量编码结果: 三个 [batchSize, seqLength] 的张量, 按行优先存放在连续的 long[] 中,
+ * 可直接用 LongBuffer.wrap() 交给推理框架, 例如 OnnxTensor.createTensor(env, LongBuffer.wrap(getInputIds()), getShape())
+ *
+ * @author wangchuangfeng
+ */
+public class BatchEncoding {
+    private final int batchSize;
+    private final int seqLength;
+    /**
+     * token id, 第 i 行第 j 列位于 i * seqLength + j
+     */
+    private final long[] inputIds;
+    /**
+     * mask. 实际有字符的位置为 1, padding 字符为 0
+     */
+    private final long[] inputMask;
+    /**
+     * 片段标记. 第一个句子为 0, 第二个句子为 1
+     */
+    private final long[] segmentIds;
+
+    public BatchEncoding(int batchSize, int seqLength, long[] inputIds, long[] inputMask, long[] segmentIds) {
+        this.batchSize = batchSize;
+        this.seqLength = seqLength;
+        this.inputIds = inputIds;
+        this.inputMask = inputMask;
+        this.segmentIds = segmentIds;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getSeqLength() {
+        return seqLength;
+    }
+
+    /**
+     * 张量形状 [batchSize, seqLength]
+     */
+    public long[] getShape() {
+        return new long[]{batchSize, seqLength};
+    }
+
+    public long[] getInputIds() {
+        return inputIds;
+    }
+
+    public long[] getInputMask() {
+        return inputMask;
+    }
+
+    public long[] getSegmentIds() {
+        return segmentIds;
+    }
+}
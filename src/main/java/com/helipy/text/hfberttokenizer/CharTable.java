@@ -0,0 +1,103 @@
+package com.helipy.text.hfberttokenizer;
+
+/**
+ * 字符分类表: 类加载时为每个 BMP 字符预计算一个字节的分类标记, 分类只需一次数组读取.
+ * 分类规则与原来的正则 \pP \pZ \pC \p{Mn} 一致(java 正则的 Unicode 类别即 Character.getType()),
+ * 辅助平面字符直接按 Character.getType() 计算.
+ *
+ * @author wangchuangfeng
+ */
+public final class CharTable {
+    /**
+     * 标点: ASCII 中的非字母数字可见字符, 以及 \pP
+     */
+    static final byte PUNCTUATION = 1;
+    /**
+     * 空白: 空格 \t \n \r, 以及 \pZ
+     */
+    static final byte WHITESPACE = 1 << 1;
+    /**
+     * 控制字符: \pC, 不含 \t \n \r
+     */
+    static final byte CONTROL = 1 << 2;
+    /**
+     * 音调字符: \p{Mn}
+     */
+    static final byte ACCENT = 1 << 3;
+    /**
+     * 中文字符: [一-龥] [㐀-䶿]
+     */
+    static final byte CHINESE = 1 << 4;
+
+    private static final byte[] FLAGS = new byte[Character.MAX_VALUE + 1];
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            FLAGS[c] = classify(c);
+        }
+    }
+
+    private CharTable() {
+    }
+
+    private static byte classify(int codePoint) {
+        int flags = 0;
+        int type = Character.getType(codePoint);
+        if ((codePoint >= 33 && codePoint <= 47) || (codePoint >= 58 && codePoint <= 64)
+                || (codePoint >= 91 && codePoint <= 96) || (codePoint >= 123 && codePoint <= 126)
+                || isPunctuationType(type)) {
+            flags |= PUNCTUATION;
+        }
+        if (codePoint == ' ' || codePoint == '\t' || codePoint == '\n' || codePoint == '\r'
+                || type == Character.SPACE_SEPARATOR || type == Character.LINE_SEPARATOR
+                || type == Character.PARAGRAPH_SEPARATOR) {
+            flags |= WHITESPACE;
+        }
+        if (codePoint != '\t' && codePoint != '\n' && codePoint != '\r'
+                && (type == Character.CONTROL || type == Character.FORMAT || type == Character.PRIVATE_USE
+                || type == Character.SURROGATE || type == Character.UNASSIGNED)) {
+            flags |= CONTROL;
+        }
+        if (type == Character.NON_SPACING_MARK) {
+            flags |= ACCENT;
+        }
+        if ((codePoint >= 0x4E00 && codePoint <= 0x9FA5) || (codePoint >= 0x3400 && codePoint <= 0x4DBF)) {
+            flags |= CHINESE;
+        }
+        return (byte) flags;
+    }
+
+    private static boolean isPunctuationType(int type) {
+        return type == Character.CONNECTOR_PUNCTUATION || type == Character.DASH_PUNCTUATION
+                || type == Character.START_PUNCTUATION || type == Character.END_PUNCTUATION
+                || type == Character.INITIAL_QUOTE_PUNCTUATION || type == Character.FINAL_QUOTE_PUNCTUATION
+                || type == Character.OTHER_PUNCTUATION;
+    }
+
+    static int flags(int codePoint) {
+        if (codePoint <= Character.MAX_VALUE) {
+            return FLAGS[codePoint];
+        }
+        return classify(codePoint);
+    }
+
+    public static boolean isPunctuation(int codePoint) {
+        return (flags(codePoint) & PUNCTUATION) != 0;
+    }
+
+    public static boolean isWhiteSpace(int codePoint) {
+        return (flags(codePoint) & WHITESPACE) != 0;
+    }
+
+    public static boolean isControl(int codePoint) {
+        return (flags(codePoint) & CONTROL) != 0;
+    }
+
+    public static boolean isAccent(int codePoint) {
+        return (flags(codePoint) & ACCENT) != 0;
+    }
+
+    public static boolean isChineseChar(int codePoint) {
+        return (flags(codePoint) & CHINESE) != 0;
+    }
+}
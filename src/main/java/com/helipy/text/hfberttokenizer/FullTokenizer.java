@@ -1,18 +1,38 @@
 package com.helipy.text.hfberttokenizer;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.Sets;
-import com.helipy.text.ahocorasick.DatAutomaton;
-import com.helipy.text.ahocorasick.Emit;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 
 /**
  * version1 from: https://github.com/huggingface/tflite-android-transformers/blob/master/bert/src/main/java/co/huggingface/android_transformers/bertqa/tokenization/FullTokenizer.java
@@ -27,24 +47,23 @@ import java.util.Set;
 /**
  * 中文 bert tokenizer
  * 修改自: https://github.com/zhongbin1/bert_tokenization_for_java/blob/master/FullTokenizer.java
+ * <p>
+ * 线程安全: 构造完成后可被多个线程并发调用分词/编码接口, 不要在并发调用期间修改 setXxxToken() 等配置.
  *
  * @author wangchuangfeng
  */
 @SuppressWarnings("PMD")
 public class FullTokenizer {
-    private BiMap<String, Integer> vocab;
+    private Vocab vocab;
     /**
      * 特殊标记符: UNK, CLS, SEP, MASK, PAD
      */
     private Set<String> noSplitTokens;
     /**
-     * 特殊标记符: 添加了用户定义的标记
+     * 特殊标记符及用户添加的标记, 添加标记时整体替换, 分词线程读到的始终是完整的快照
      */
-    private Set<String> allSpecialTokens;
-
-    private DatAutomaton<Byte> trie;
+    private volatile SpecialTokens specialTokens;
 
-    private Preprocess preProcessor;
     private BasicTokenizer basicTokenizer;
     private WordPieceTokenizer wordPieceTokenizer;
 
@@ -75,73 +94,591 @@ public class FullTokenizer {
     private String padToken = "[PAD]";
     private int padTokenId;
 
+    /**
+     * 并行分词的最小 doc 数量, 小于该值时在调用线程串行执行
+     */
+    @Getter
+    @Setter
+    private int parallelThreshold = 64;
+
+    /**
+     * 限定 id 数量分词时每块的最少字符数, 见 tokenizeToIds(String, IntList, int).
+     * 块的字符数取还能追加的 id 数量, 中文每个字符输出一个 id, 英文通常少于一个
+     */
+    private static final int MIN_CHUNK_CHARS = 32;
+
+    /**
+     * 整句分词结果缓存, key 为文本和需要的 id 数量, 未开启时为 null
+     */
+    private Cache<TextKey, int[]> textCache;
+
 
     public FullTokenizer(String filePath, boolean full2Half, boolean doLower) {
-        this.full2Half = full2Half;
-        this.doLower = doLower;
-        this.preProcessor = new Preprocess();
-        this.vocab = preProcessor.load(filePath);
+        this(Vocab.load(filePath), full2Half, doLower);
+    }
+
+    public FullTokenizer(InputStreamReader vocabInputStream, boolean full2Half, boolean doLower) {
+        this(Vocab.load(vocabInputStream, false), full2Half, doLower);
+    }
+
+    /**
+     * 使用已加载的词表, 例如 Vocab.open() 内存映射的编译词表. 词表可在多个 FullTokenizer 间共享
+     */
+    public FullTokenizer(Vocab vocab, boolean full2Half, boolean doLower) {
+        this(builder().vocab(vocab).full2Half(full2Half).doLower(doLower));
+    }
+
+    private FullTokenizer(Builder builder) {
+        this.full2Half = builder.full2Half;
+        this.doLower = builder.doLower;
+        this.vocab = builder.vocab;
+        this.unkToken = builder.unkToken;
+        this.clsToken = builder.clsToken;
+        this.sepToken = builder.sepToken;
+        this.maskToken = builder.maskToken;
+        this.padToken = builder.padToken;
         this.noSplitTokens = Sets.newHashSet(unkToken, clsToken, sepToken, maskToken, padToken);
 
-        basicTokenizer = new BasicTokenizer();
-        wordPieceTokenizer = new WordPieceTokenizer(vocab, 200, unkToken);
+        // 全角转半角在 basicTokenizer 扫描时逐字符完成
+        basicTokenizer = new BasicTokenizer(!builder.caseSensitive, new HashSet<>(), builder.tokenizeChineseChars,
+                builder.stripAccents, full2Half, builder.hfCompatible);
+        wordPieceTokenizer = new WordPieceTokenizer(vocab, builder.maxInputCharsPerWord, unkToken, false,
+                builder.wordPieceCacheSize);
 
-        allSpecialTokens = new HashSet<>();
+        // WordPieceTokenizer 已检查 unkToken 在词表中
+        this.unkTokenId = vocab.getId(unkToken);
+        Set<String> allSpecialTokens = new HashSet<>();
         allSpecialTokens.add(unkToken);
         allSpecialTokens.addAll(noSplitTokens);
+        this.specialTokens = new SpecialTokens(0, allSpecialTokens, ImmutableBiMap.of(), vocab, unkTokenId);
 
-        this.unkTokenId = encodeToken(unkToken);
         this.padTokenId = encodeToken(padToken);
-        buildTrie();
+
+        if (builder.textCacheMaxBytes > 0) {
+            CacheBuilder<TextKey, int[]> cacheBuilder = CacheBuilder.newBuilder()
+                    .maximumWeight(builder.textCacheMaxBytes)
+                    .weigher((TextKey key, int[] ids) -> key.text.length() * 2 + ids.length * 4 + 64)
+                    .recordStats();
+            if (builder.textCacheExpireNanos > 0) {
+                cacheBuilder.expireAfterWrite(builder.textCacheExpireNanos, TimeUnit.NANOSECONDS);
+            }
+            this.textCache = cacheBuilder.build();
+        }
+        if (!builder.addedTokens.isEmpty()) {
+            addTokens(builder.addedTokens);
+        }
     }
 
-    private void buildTrie() {
-        DatAutomaton.Builder<Byte> builder = DatAutomaton.builder();
-        for (String token : allSpecialTokens) {
-            builder.add(token);
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 从 huggingface 的 tokenizer.json 构建, 见 Builder.tokenizerJson()
+     */
+    public static FullTokenizer fromTokenizerJson(String filePath) {
+        return builder().tokenizerJson(filePath).build();
+    }
+
+    /**
+     * 可选配置较多时使用, 例如:
+     * FullTokenizer.builder().vocab("vocab.txt").doLower(true).wordPieceCacheSize(100_000).build()
+     */
+    public static final class Builder {
+        private Vocab vocab;
+        private boolean full2Half;
+        private boolean doLower;
+        private boolean hfCompatible;
+        private long wordPieceCacheSize;
+        private long textCacheMaxBytes;
+        private long textCacheExpireNanos;
+        private boolean caseSensitive;
+        private boolean tokenizeChineseChars = true;
+        private Boolean stripAccents;
+        private int maxInputCharsPerWord = 200;
+        private String unkToken = "[UNK]";
+        private String clsToken = "[CLS]";
+        private String sepToken = "[SEP]";
+        private String maskToken = "[MASK]";
+        private String padToken = "[PAD]";
+        private final Map<String, Integer> addedTokens = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * 从 huggingface 的 tokenizer.json 读取词表, 归一化, 切分和特殊标记配置, 之后仍可修改其余选项.
+         * 流式解析, 不生成整个文件的对象树. 只支持 BertNormalizer + BertPreTokenizer + WordPiece 的配置
+         */
+        public Builder tokenizerJson(String filePath) {
+            try (FileInputStream fileInputStream = new FileInputStream(filePath)) {
+                try (InputStreamReader inputStreamReader =
+                             new InputStreamReader(fileInputStream, StandardCharsets.UTF_8)) {
+                    return tokenizerJson(inputStreamReader);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("read tokenizer.json error!", e);
+            }
+        }
+
+        public Builder tokenizerJson(Reader reader) {
+            try {
+                TokenizerJsonLoader.load(new JsonReader(reader), this);
+            } catch (IOException e) {
+                throw new RuntimeException("read tokenizer.json error!", e);
+            }
+            return this;
+        }
+
+        public Builder vocab(Vocab vocab) {
+            this.vocab = vocab;
+            return this;
+        }
+
+        /**
+         * 从 vocab.txt 加载词表
+         */
+        public Builder vocab(String filePath) {
+            this.vocab = Vocab.load(filePath);
+            return this;
+        }
+
+        /**
+         * 是否执行全角转半角, 默认 false
+         */
+        public Builder full2Half(boolean full2Half) {
+            this.full2Half = full2Half;
+            return this;
+        }
+
+        /**
+         * 是否执行转小写, 默认 false
+         */
+        public Builder doLower(boolean doLower) {
+            this.doLower = doLower;
+            return this;
+        }
+
+        /**
+         * 中文字符按 transformers _is_chinese_char 的码点范围切分(含辅助平面的扩展 B-E 和兼容表意文字),
+         * 辅助平面字符按码点做标点切分和去音调. 默认 false
+         */
+        public Builder hfCompatible(boolean hfCompatible) {
+            this.hfCompatible = hfCompatible;
+            return this;
+        }
+
+        /**
+         * wordPiece 切分结果缓存的最大词数, 默认 0 不缓存. 缓存以 basicTokenizer 切分出的词为 key, 不影响分词结果
+         */
+        public Builder wordPieceCacheSize(long wordPieceCacheSize) {
+            this.wordPieceCacheSize = wordPieceCacheSize;
+            return this;
+        }
+
+        /**
+         * 整句分词结果缓存的内存上限(按文本和 id 数组大小估算的字节数), 默认 0 不缓存.
+         * 缓存 tokenizeSingle() 的文本, 以及句对接口中的 query, 不影响编码结果
+         */
+        public Builder textCacheMaxBytes(long textCacheMaxBytes) {
+            this.textCacheMaxBytes = textCacheMaxBytes;
+            return this;
+        }
+
+        /**
+         * 整句缓存写入后的过期时间, 默认不过期
+         */
+        public Builder textCacheExpireAfterWrite(long duration, TimeUnit unit) {
+            this.textCacheExpireNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 区分大小写(cased 模型), basicTokenizer 不转小写. 默认 false, 与原有行为一致
+         */
+        public Builder caseSensitive(boolean caseSensitive) {
+            this.caseSensitive = caseSensitive;
+            return this;
+        }
+
+        /**
+         * 中文字符前后加空格, 即逐字切分, 默认 true
+         */
+        public Builder tokenizeChineseChars(boolean tokenizeChineseChars) {
+            this.tokenizeChineseChars = tokenizeChineseChars;
+            return this;
+        }
+
+        /**
+         * 是否去音调, 默认 null 与转小写一致
+         */
+        public Builder stripAccents(Boolean stripAccents) {
+            this.stripAccents = stripAccents;
+            return this;
+        }
+
+        /**
+         * 超过该长度的词直接输出 unkToken, 默认 200
+         */
+        public Builder maxInputCharsPerWord(int maxInputCharsPerWord) {
+            this.maxInputCharsPerWord = maxInputCharsPerWord;
+            return this;
+        }
+
+        public Builder unkToken(String unkToken) {
+            this.unkToken = unkToken;
+            return this;
+        }
+
+        public Builder clsToken(String clsToken) {
+            this.clsToken = clsToken;
+            return this;
+        }
+
+        public Builder sepToken(String sepToken) {
+            this.sepToken = sepToken;
+            return this;
+        }
+
+        public Builder maskToken(String maskToken) {
+            this.maskToken = maskToken;
+            return this;
+        }
+
+        public Builder padToken(String padToken) {
+            this.padToken = padToken;
+            return this;
+        }
+
+        /**
+         * 构造时添加的标记, 见 FullTokenizer.addTokens(Map)
+         */
+        public Builder addedTokens(Map<String, Integer> addedTokens) {
+            this.addedTokens.putAll(addedTokens);
+            return this;
+        }
+
+        public FullTokenizer build() {
+            if (vocab == null) {
+                throw new IllegalStateException("vocab is required");
+            }
+            return new FullTokenizer(this);
         }
-        trie = builder.build();
     }
 
-    public FullTokenizer(InputStreamReader vocabInputStream, boolean full2Half, boolean doLower) {
-        this.full2Half = full2Half;
-        this.doLower = doLower;
-        this.preProcessor = new Preprocess();
-        this.vocab = preProcessor.load(vocabInputStream);
-        this.noSplitTokens = Sets.newHashSet(unkToken, clsToken, sepToken, maskToken, padToken);
+    /**
+     * wordPiece 缓存的命中统计, 未开启缓存时各项均为 0
+     */
+    public CacheStats getWordPieceCacheStats() {
+        return wordPieceTokenizer.getCacheStats();
+    }
 
-        basicTokenizer = new BasicTokenizer();
-        wordPieceTokenizer = new WordPieceTokenizer(vocab, 200, unkToken);
+    /**
+     * 整句缓存的命中统计, 未开启缓存时各项均为 0
+     */
+    public CacheStats getTextCacheStats() {
+        return textCache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : textCache.stats();
+    }
 
-        allSpecialTokens = new HashSet<>();
-        allSpecialTokens.add(unkToken);
-        allSpecialTokens.addAll(noSplitTokens);
+    /**
+     * 整句缓存的 key. 分词选项在 FullTokenizer 构造后不变, 只需文本和 limit
+     */
+    private static final class TextKey {
+        private final String text;
+        private final int limit;
+        /**
+         * 添加标记后分词结果会变化, 旧版本的缓存不再命中
+         */
+        private final int generation;
+
+        private TextKey(String text, int limit, int generation) {
+            this.text = text;
+            this.limit = limit;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TextKey)) {
+                return false;
+            }
+            TextKey other = (TextKey) o;
+            return limit == other.limit && generation == other.generation && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, limit, generation);
+        }
+    }
+
+    /**
+     * 特殊标记的不可变快照: 匹配用的前缀树, 以及不在词表中的添加标记的 id
+     */
+    private static final class SpecialTokens {
+        private final int generation;
+        private final Set<String> tokens;
+        /**
+         * 不在词表中的添加标记, id 从词表大小开始
+         */
+        private final ImmutableBiMap<String, Integer> addedTokens;
+        /**
+         * 标记到 id 的前缀树, 从 ROOT 出发逐字符匹配
+         */
+        private final WordPieceTrie trie;
+        /**
+         * 各标记的首字符, 其余位置不必查前缀树
+         */
+        private final BitSet firstChars = new BitSet(Character.MAX_VALUE + 1);
 
-        this.unkTokenId = encodeToken(unkToken);
-        buildTrie();
+        private SpecialTokens(int generation, Set<String> tokens, ImmutableBiMap<String, Integer> addedTokens,
+                              Vocab vocab, int unkTokenId) {
+            this.generation = generation;
+            this.tokens = Collections.unmodifiableSet(tokens);
+            this.addedTokens = addedTokens;
+            Map<String, Integer> tokenIds = new HashMap<>();
+            for (String token : tokens) {
+                int id = vocab.getId(token);
+                if (id == WordPieceTrie.NONE) {
+                    Integer addedId = addedTokens.get(token);
+                    id = addedId == null ? unkTokenId : addedId;
+                }
+                tokenIds.put(token, id);
+                firstChars.set(token.charAt(0));
+            }
+            this.trie = WordPieceTrie.build(tokenIds);
+        }
+
+        /**
+         * 切分起点在 [from, to) 内的特殊标记: 从左到右扫描一遍, 每个位置取最长的匹配, 匹配后从其结束位置继续,
+         * 即 transformers 的最左最长规则. 标记和它们之间的普通文本依次交给 consumer
+         *
+         * @return 扫描结束的位置, 最后一个标记越过 to 时为该标记的结束位置, 否则为 to
+         */
+        private int split(String text, int from, int to, SpanConsumer consumer) {
+            int pieceStart = from;
+            int i = from;
+            while (i < to) {
+                if (!firstChars.get(text.charAt(i))) {
+                    i++;
+                    continue;
+                }
+                int node = WordPieceTrie.ROOT;
+                int matchEnd = -1;
+                int matchId = WordPieceTrie.NONE;
+                for (int j = i; j < text.length(); j++) {
+                    node = trie.child(node, text.charAt(j));
+                    if (node == WordPieceTrie.NONE) {
+                        break;
+                    }
+                    int id = trie.tokenId(node);
+                    if (id != WordPieceTrie.NONE) {
+                        matchEnd = j + 1;
+                        matchId = id;
+                    }
+                }
+                if (matchEnd < 0) {
+                    i++;
+                    continue;
+                }
+                if (pieceStart < i) {
+                    consumer.accept(pieceStart, i, WordPieceTrie.NONE);
+                }
+                consumer.accept(i, matchEnd, matchId);
+                i = matchEnd;
+                pieceStart = matchEnd;
+            }
+            if (pieceStart < i) {
+                consumer.accept(pieceStart, i, WordPieceTrie.NONE);
+            }
+            return i;
+        }
     }
 
-    List<String> trieSplit(String text) {
-        List<String> tokenList = new ArrayList<>();
-        if (text == null) {
-            return tokenList;
+    /**
+     * 添加标记, 与 transformers add_tokens() 相同: 已在词表或已添加的标记沿用原 id, 其余依次分配新 id.
+     * 添加的标记整体匹配, 不再切分, 多个标记重叠时取最左最长的匹配.
+     * <p>
+     * 在调用线程中重建自动机后整体替换, 不阻塞并发的分词调用; 进行中的调用使用替换前的快照.
+     *
+     * @return 新分配 id 的标记数量
+     */
+    public synchronized int addTokens(Collection<String> tokens) {
+        SpecialTokens current = specialTokens;
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        int nextId = nextAddedId(current);
+        for (String token : tokens) {
+            if (Strings.isNullOrEmpty(token) || ids.containsKey(token)) {
+                continue;
+            }
+            int id = vocab.getId(token);
+            if (id == WordPieceTrie.NONE) {
+                Integer addedId = current.addedTokens.get(token);
+                id = addedId == null ? nextId++ : addedId;
+            }
+            ids.put(token, id);
         }
-        List<Emit<Byte>> list = trie.parseText(text);
-        int idx = 0;
-        for (Emit<Byte> emit : list) {
-            if (idx < emit.getStart()) {
-                String token = text.substring(idx, emit.getStart());
-                tokenList.add(token);
+        int added = nextId - nextAddedId(current);
+        addTokens(ids);
+        return added;
+    }
+
+    /**
+     * 按指定 id 添加标记, 例如 added_tokens.json 的内容. 已在词表中的标记 id 必须与词表一致,
+     * 新标记的 id 不能与词表或已添加的标记冲突
+     */
+    public synchronized void addTokens(Map<String, Integer> tokens) {
+        SpecialTokens current = specialTokens;
+        Set<String> allTokens = new LinkedHashSet<>(current.tokens);
+        BiMap<String, Integer> addedTokens = HashBiMap.create(current.addedTokens);
+        for (Map.Entry<String, Integer> entry : tokens.entrySet()) {
+            String token = entry.getKey();
+            int id = entry.getValue();
+            if (Strings.isNullOrEmpty(token)) {
+                throw new IllegalArgumentException("added token must not be empty");
             }
-            String keyword = text.substring(emit.getStart(), emit.getEnd());
-            tokenList.add(keyword);
-            idx = emit.getEnd();
+            int vocabId = vocab.getId(token);
+            if (vocabId != WordPieceTrie.NONE) {
+                if (vocabId != id) {
+                    throw new IllegalArgumentException("token " + token + " is in vocab with id " + vocabId
+                            + ", can not add it with id " + id);
+                }
+            } else {
+                if (id < vocab.size()) {
+                    throw new IllegalArgumentException("added token " + token + " has id " + id
+                            + " conflicting with vocab token " + vocab.getToken(id));
+                }
+                Integer previousId = addedTokens.get(token);
+                String previousToken = addedTokens.inverse().get(id);
+                if (previousId != null && previousId != id || previousToken != null && !previousToken.equals(token)) {
+                    throw new IllegalArgumentException("added token " + token + " has id " + id
+                            + " conflicting with added tokens");
+                }
+                addedTokens.put(token, id);
+            }
+            allTokens.add(token);
         }
-        if (idx < text.length()) {
-            String token = text.substring(idx);
-            tokenList.add(token);
+        this.specialTokens = new SpecialTokens(current.generation + 1, allTokens, ImmutableBiMap.copyOf(addedTokens),
+                vocab, unkTokenId);
+        if (textCache != null) {
+            textCache.invalidateAll();
+        }
+    }
+
+    /**
+     * 加载 transformers 保存的 added_tokens.json: {"token": id, ...}
+     */
+    public void loadAddedTokens(String filePath) {
+        Map<String, Integer> tokens = new LinkedHashMap<>();
+        try (JsonReader reader = openJson(filePath)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String token = reader.nextName();
+                tokens.put(token, reader.nextInt());
+            }
+            reader.endObject();
+        } catch (IOException e) {
+            throw new RuntimeException("read added tokens error!", e);
+        }
+        addTokens(tokens);
+    }
+
+    /**
+     * 加载 transformers 保存的 special_tokens_map.json, 其中的标记(含 additional_special_tokens)都作为添加标记整体匹配.
+     * 不修改 unk/cls/sep/pad/mask 的设置, 需要时使用 setXxxToken()
+     */
+    public void loadSpecialTokensMap(String filePath) {
+        List<String> tokens = new ArrayList<>();
+        try (JsonReader reader = openJson(filePath)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                reader.nextName();
+                readSpecialTokens(reader, tokens);
+            }
+            reader.endObject();
+        } catch (IOException e) {
+            throw new RuntimeException("read special tokens map error!", e);
         }
-        return tokenList;
+        addTokens(tokens);
+    }
+
+    /**
+     * 标记可以是字符串, AddedToken 对象 {"content": "..."}, 或者它们的数组
+     */
+    private static void readSpecialTokens(JsonReader reader, List<String> tokens) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+                tokens.add(reader.nextString());
+                break;
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readSpecialTokens(reader, tokens);
+                }
+                reader.endArray();
+                break;
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("content".equals(reader.nextName())) {
+                        tokens.add(reader.nextString());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                break;
+            default:
+                reader.skipValue();
+                break;
+        }
+    }
+
+    private static JsonReader openJson(String filePath) throws IOException {
+        return new JsonReader(new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8));
+    }
+
+    private int nextAddedId(SpecialTokens current) {
+        int nextId = vocab.size();
+        for (Integer id : current.addedTokens.values()) {
+            nextId = Math.max(nextId, id + 1);
+        }
+        return nextId;
+    }
+
+    /**
+     * 已添加的不在词表中的标记及其 id
+     */
+    public Map<String, Integer> getAddedTokens() {
+        return specialTokens.addedTokens;
+    }
+
+    /**
+     * 按特殊标记切分 text, 以 [start, end) 区间交给 consumer, 不生成子串
+     */
+    void splitSpecialTokens(String text, SpanConsumer consumer) {
+        splitSpecialTokens(text, specialTokens, consumer);
+    }
+
+    private void splitSpecialTokens(String text, SpecialTokens tokens, SpanConsumer consumer) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        tokens.split(text, 0, text.length(), consumer);
+    }
+
+    /**
+     * 接收特殊标记切分结果
+     */
+    @FunctionalInterface
+    interface SpanConsumer {
+        /**
+         * @param tokenId 特殊标记的 id, 普通文本为 WordPieceTrie.NONE
+         */
+        void accept(int start, int end, int tokenId);
     }
 
     /**
@@ -155,16 +692,13 @@ public class FullTokenizer {
     public List<String> tokenize(String text) {
         List<String> splitTokens = new ArrayList<>();
         // 过滤出 specialTokens
-        List<String> tokensSplitBySpecialToken = trieSplit(text);
-        for (String piece : tokensSplitBySpecialToken) {
-            if (allSpecialTokens.contains(piece)) {
+        splitSpecialTokens(text, (pieceStart, pieceEnd, tokenId) -> {
+            String piece = pieceStart == 0 && pieceEnd == text.length() ? text : text.substring(pieceStart, pieceEnd);
+            if (tokenId != WordPieceTrie.NONE) {
                 splitTokens.add(piece);
-                continue;
+                return;
             }
 
-            if (full2Half) {
-                piece = preProcessor.full2HalfChange(piece);
-            }
             if (doLower) {
                 piece = piece.toLowerCase();
             }
@@ -179,10 +713,278 @@ public class FullTokenizer {
                     splitTokens.addAll(wordPieceTokenizer.tokenize(token));
                 }
             }
-        }
+        });
         return splitTokens;
     }
 
+    /**
+     * 与 tokenize() 相同的分词, 直接输出词表 id: basicTokenizer 以区间形式输出切分结果,
+     * wordPiece 前缀树节点上记录了词表 id, 不生成中间 token 字符串,
+     * 结果等价于 convertTokensToIds(tokenize(text))
+     *
+     * @param text
+     * @return
+     */
+    public int[] tokenizeToIds(String text) {
+        IntList ids = new IntList();
+        tokenizeToIds(text, ids);
+        return ids.toArray();
+    }
+
+    /**
+     * 分词结果 id 追加到 output, output 可在多次调用间复用
+     *
+     * @param text
+     * @param output
+     */
+    public void tokenizeToIds(String text, IntList output) {
+        tokenizeToIds(text, output, specialTokens);
+    }
+
+    private void tokenizeToIds(String text, IntList output, SpecialTokens tokens) {
+        BasicTokenizer.TokenConsumer wordConsumer = wordConsumer(output, tokens);
+        splitSpecialTokens(text, tokens, (pieceStart, pieceEnd, tokenId) -> {
+            if (tokenId != WordPieceTrie.NONE) {
+                output.add(tokenId);
+                return;
+            }
+            tokenizePiece(text, pieceStart, pieceEnd, wordConsumer);
+        });
+    }
+
+    /**
+     * 与 tokenizeToIds(String, IntList) 相同, 但最多追加 limit 个 id, 结果与完整分词后截断相同.
+     * 文本按块依次切分特殊标记, 转小写并分词, 达到 limit 后不再处理剩余文本.
+     * 块在空白和中文字符前结束, 这些位置本身就是词的边界, 分块不影响结果
+     */
+    public void tokenizeToIds(String text, IntList output, int limit) {
+        tokenizeToIds(text, output, specialTokens, limit);
+    }
+
+    private void tokenizeToIds(String text, IntList output, SpecialTokens tokens, int limit) {
+        int maxSize = limit > Integer.MAX_VALUE - output.size() ? Integer.MAX_VALUE : output.size() + Math.max(limit, 0);
+        if (text == null || output.size() >= maxSize) {
+            return;
+        }
+        BasicTokenizer.TokenConsumer wordConsumer = wordConsumer(output, tokens);
+        SpanConsumer pieceConsumer = (pieceStart, pieceEnd, tokenId) -> {
+            if (output.size() >= maxSize) {
+                return;
+            }
+            if (tokenId != WordPieceTrie.NONE) {
+                output.add(tokenId);
+                return;
+            }
+            tokenizePiece(text, pieceStart, pieceEnd, wordConsumer);
+        };
+        int length = text.length();
+        // 下一个 Σ 的位置(没有时为 length), 以及它所在的不含空白的片段的起点
+        int sigma = -1;
+        int sigmaRunStart = 0;
+        int start = 0;
+        while (start < length && output.size() < maxSize) {
+            int chunkChars = Math.max(maxSize - output.size(), MIN_CHUNK_CHARS);
+            int end = basicTokenizer.nextBoundary(text, start + Math.min(chunkChars, length - start), length);
+            if (doLower && end < length && !BasicTokenizer.isBoundaryWhitespace(text.charAt(end))) {
+                // 在中文字符前分块时, 转小写判断词尾的 Σ 可能越过该字符, 同一片段内有 Σ 时改在空白前分块
+                if (sigma < start) {
+                    sigma = text.indexOf('\u03A3', start);
+                    sigma = sigma < 0 ? length : sigma;
+                    sigmaRunStart = sigma;
+                    while (sigma < length && sigmaRunStart > start
+                            && !BasicTokenizer.isBoundaryWhitespace(text.charAt(sigmaRunStart - 1))) {
+                        sigmaRunStart--;
+                    }
+                }
+                if (sigma < end || sigma < length && sigmaRunStart <= end) {
+                    end = BasicTokenizer.nextWhitespace(text, end, length);
+                }
+            }
+            start = tokens.split(text, start, end, pieceConsumer);
+        }
+        output.truncate(maxSize);
+    }
+
+    /**
+     * 对特殊标记之间的文本 text[start, end) 分词
+     */
+    private void tokenizePiece(String text, int start, int end, BasicTokenizer.TokenConsumer wordConsumer) {
+        if (needsLowerCase(text, start, end)) {
+            String piece = text.substring(start, end).toLowerCase();
+            basicTokenizer.tokenize(piece, 0, piece.length(), noSplitTokens, wordConsumer);
+        } else {
+            basicTokenizer.tokenize(text, start, end, noSplitTokens, wordConsumer);
+        }
+    }
+
+    /**
+     * 输出 basicTokenizer 切分出的词的 id, 标记的 id 按调用开始时取得的快照 tokens 映射
+     */
+    private BasicTokenizer.TokenConsumer wordConsumer(IntList output, SpecialTokens tokens) {
+        return (buffer, start, end) -> {
+            if (BasicTokenizer.containsToken(noSplitTokens, buffer, start, end)) {
+                output.add(encodeToken(buffer, start, end, tokens));
+            } else {
+                wordPieceTokenizer.tokenizeWordToIds(buffer, start, end, output);
+            }
+        };
+    }
+
+    /**
+     * 是否需要先对片段整体 toLowerCase(). basicTokenizer 转小写时, 纯 ASCII 的片段由它按词转小写,
+     * 结果与整段 toLowerCase() 相同, 可以直接在原文本的区间上分词
+     */
+    private boolean needsLowerCase(String text, int start, int end) {
+        return doLower && (!basicTokenizer.isDoLowerCase() || !isAscii(text, start, end));
+    }
+
+    /**
+     * 与 tokenizeToIds(String, IntList) 相同, 同时输出每个 token 在 text 中的字符区间:
+     * 追加的第 k 个 id 对应 offsets 中追加的第 2k, 2k + 1 个值 [start, end).
+     * 区间经过全角转半角, 清洗, 转小写/去音调各步骤逐字符追踪; 转小写/去音调改变了词的长度时, 词内的 token 都对应整个词
+     */
+    public void tokenizeToIds(String text, IntList output, IntList offsets) {
+        if (offsets == null) {
+            tokenizeToIds(text, output);
+            return;
+        }
+        SpecialTokens tokens = specialTokens;
+        OffsetConsumer wordConsumer = new OffsetConsumer(output, offsets, tokens);
+        splitSpecialTokens(text, tokens, (pieceStart, pieceEnd, tokenId) -> {
+            if (tokenId != WordPieceTrie.NONE) {
+                output.add(tokenId);
+                offsets.add(pieceStart);
+                offsets.add(pieceEnd);
+                return;
+            }
+            if (needsLowerCase(text, pieceStart, pieceEnd)) {
+                String piece = text.substring(pieceStart, pieceEnd).toLowerCase();
+                wordConsumer.shift = pieceStart;
+                wordConsumer.pieceStart = -1;
+                wordConsumer.pieceOffsets = null;
+                if (piece.length() != pieceEnd - pieceStart) {
+                    // 转小写改变了长度(例如 İ), 逐码点对齐
+                    wordConsumer.pieceOffsets = alignLowerCase(text, pieceStart, pieceEnd, piece);
+                    wordConsumer.pieceStart = wordConsumer.pieceOffsets == null ? pieceStart : -1;
+                    wordConsumer.pieceEnd = pieceEnd;
+                }
+                basicTokenizer.tokenize(piece, 0, piece.length(), noSplitTokens, wordConsumer.charOffsets, wordConsumer);
+            } else {
+                wordConsumer.shift = 0;
+                wordConsumer.pieceStart = -1;
+                wordConsumer.pieceOffsets = null;
+                basicTokenizer.tokenize(text, pieceStart, pieceEnd, noSplitTokens, wordConsumer.charOffsets, wordConsumer);
+            }
+        });
+    }
+
+    /**
+     * 转小写后的 lowered 中每个字符在原文本中的 [start, end), 按码点逐个转小写拼接的结果与 lowered 不同时
+     * (上下文相关的规则, 如词尾的 Σ) 返回 null
+     */
+    private static int[] alignLowerCase(String text, int start, int end, String lowered) {
+        int[] offsets = new int[lowered.length() * 2];
+        int pos = 0;
+        for (int i = start; i < end; ) {
+            int next = i + Character.charCount(text.codePointAt(i));
+            String lower = text.substring(i, Math.min(next, end)).toLowerCase();
+            if (!lowered.startsWith(lower, pos)) {
+                return null;
+            }
+            for (int k = 0; k < lower.length(); k++) {
+                offsets[2 * pos] = i;
+                offsets[2 * pos + 1] = Math.min(next, end);
+                pos++;
+            }
+            i = next;
+        }
+        return pos == lowered.length() ? offsets : null;
+    }
+
+    /**
+     * 输出 basicTokenizer 切分出的词的 id 和字符区间. 词内各 wordPiece 按其长度(去掉 "##")依次定位,
+     * 长度之和与词长不一致时(输出 unkToken)都对应整个词
+     */
+    private final class OffsetConsumer implements BasicTokenizer.TokenConsumer {
+        private final IntList output;
+        private final IntList offsets;
+        private final SpecialTokens tokens;
+        /**
+         * basicTokenizer 记录的词内字符位置
+         */
+        private final IntList charOffsets = new IntList();
+        /**
+         * basicTokenizer 输入相对原文本的偏移
+         */
+        private int shift;
+        /**
+         * 转小写改变了片段长度时, 转小写后的片段中每个字符在原文本中的 [start, end), 见 alignLowerCase()
+         */
+        private int[] pieceOffsets;
+        /**
+         * 转小写后的片段无法与原文本对齐时为片段在原文本中的区间, 片段内的 token 都对应该区间; 否则 pieceStart 为 -1
+         */
+        private int pieceStart = -1;
+        private int pieceEnd;
+
+        private OffsetConsumer(IntList output, IntList offsets, SpecialTokens tokens) {
+            this.output = output;
+            this.offsets = offsets;
+            this.tokens = tokens;
+        }
+
+        @Override
+        public void accept(CharSequence buffer, int start, int end) {
+            int outputSize = output.size();
+            if (BasicTokenizer.containsToken(noSplitTokens, buffer, start, end)) {
+                output.add(encodeToken(buffer, start, end, tokens));
+            } else {
+                wordPieceTokenizer.tokenizeWordToIds(buffer, start, end, output);
+            }
+            int length = 0;
+            for (int k = outputSize; k < output.size(); k++) {
+                length += pieceLength(k - outputSize, output.get(k));
+            }
+            boolean split = length == end - start;
+            int pos = start;
+            for (int k = outputSize; k < output.size(); k++) {
+                int pieceLength = split ? pieceLength(k - outputSize, output.get(k)) : end - start;
+                addOffset(split ? pos : start, split ? pos + pieceLength : end);
+                pos += pieceLength;
+            }
+        }
+
+        private int pieceLength(int index, int id) {
+            int length = vocab.getTokenLength(id);
+            return index == 0 ? length : length - WordPieceTrie.CONTINUATION_PREFIX.length();
+        }
+
+        /**
+         * buffer 的 [start, end) 区间对应的原文本区间
+         */
+        private void addOffset(int start, int end) {
+            if (pieceStart >= 0) {
+                offsets.add(pieceStart);
+                offsets.add(pieceEnd);
+            } else if (pieceOffsets != null) {
+                offsets.add(pieceOffsets[2 * charOffsets.get(2 * start)]);
+                offsets.add(pieceOffsets[2 * charOffsets.get(2 * end - 1) - 1]);
+            } else {
+                offsets.add(shift + charOffsets.get(2 * start));
+                offsets.add(shift + charOffsets.get(2 * end - 1));
+            }
+        }
+    }
+
+    private static boolean isAscii(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * token 列表转 id 列表
      *
@@ -228,11 +1030,30 @@ public class FullTokenizer {
     }
 
     public int encodeToken(String token) {
-        return vocab.getOrDefault(token, unkTokenId);
+        return encodeToken(token, 0, token.length(), specialTokens);
+    }
+
+    /**
+     * text 的 [start, end) 区间按快照 tokens 映射 id, 不生成子串
+     */
+    private int encodeToken(CharSequence text, int start, int end, SpecialTokens tokens) {
+        int id = vocab.getId(text, start, end);
+        if (id != WordPieceTrie.NONE) {
+            return id;
+        }
+        if (tokens.addedTokens.isEmpty()) {
+            return unkTokenId;
+        }
+        Integer addedId = tokens.addedTokens.get(text.subSequence(start, end).toString());
+        return addedId == null ? unkTokenId : addedId;
     }
 
     public String decodeId(int id) {
-        return vocab.inverse().getOrDefault(id, unkToken);
+        String token = vocab.getToken(id);
+        if (token == null) {
+            token = specialTokens.addedTokens.inverse().get(id);
+        }
+        return token == null ? unkToken : token;
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -243,109 +1064,517 @@ public class FullTokenizer {
      * 单句映射id
      */
     public Encoding getTokenIdsSingle(List<String> tokensQuery, int maxSeqLength) {
-        // truncation： 由于要添加 CLS 和 SEP 两个标记 token，这里要让出 2 个位置
-        if (tokensQuery.size() > maxSeqLength - 2) {
-            tokensQuery = new ArrayList<>(tokensQuery.subList(0, maxSeqLength - 1));
+        return encodeIdsSingle(toIntArray(convertTokensToIds(tokensQuery)), maxSeqLength).toEncoding();
+    }
+
+    /**
+     * 句对映射id
+     */
+    public Encoding getTokenIdsPair(List<String> tokensQuery, List<String> tokensDoc, int maxSeqLength) {
+        return encodeIdsPair(toIntArray(convertTokensToIds(tokensQuery)), toIntArray(convertTokensToIds(tokensDoc)),
+                maxSeqLength).toEncoding();
+    }
+
+    public Encoding tokenizeSingle(String query, int maxSeqLength) {
+        return encodeSingle(query, maxSeqLength).toEncoding();
+    }
+
+    public Encoding tokenizePair(String query, String doc, int maxSeqLength) {
+        return encodePair(query, doc, maxSeqLength).toEncoding();
+    }
+
+    public List<Encoding> tokenizeMultiPairs(String query, List<String> docs, int maxSeqLength) {
+        return toEncodings(encodeMultiPairs(query, docs, maxSeqLength));
+    }
+
+    /**
+     * 在 ForkJoinPool 中并行分词, 结果顺序与 docs 一致. docs 数量小于 parallelThreshold 时在当前线程执行
+     *
+     * @param pool 为 null 时使用 ForkJoinPool.commonPool()
+     */
+    public List<Encoding> tokenizeMultiPairs(String query, List<String> docs, int maxSeqLength, ForkJoinPool pool) {
+        return toEncodings(encodeMultiPairs(query, docs, maxSeqLength, pool));
+    }
+
+    private static List<Encoding> toEncodings(List<IntEncoding> encodings) {
+        List<Encoding> tokenIds = new ArrayList<>(encodings.size());
+        for (IntEncoding e : encodings) {
+            tokenIds.add(e.toEncoding());
         }
+        return tokenIds;
+    }
 
-        List<String> tokens = new ArrayList<>();
-        List<Integer> segmentIds = new ArrayList<>();
-        tokens.add(clsToken);
-        segmentIds.add(0);
-        for (String token : tokensQuery) {
-            tokens.add(token);
-            segmentIds.add(0);
+    ///////////////////////////////////////////////////////////////////////////
+    // 基于 int[] 的编码接口, 不做 Integer 装箱
+
+    /**
+     * 单句编码
+     */
+    public IntEncoding encodeSingle(String query, int maxSeqLength) {
+        return encodeIdsSingle(cachedTokenizeToIds(query, maxSeqLength - 2), maxSeqLength);
+    }
+
+    /**
+     * 句对编码
+     */
+    public IntEncoding encodePair(String query, String doc, int maxSeqLength) {
+        return encodeIdsPair(cachedTokenizeToIds(query, maxSeqLength - 3), tokenizeToIds(doc, maxSeqLength - 3),
+                maxSeqLength);
+    }
+
+    /**
+     * 一个 query 和多个 doc 组成句对编码, query 只分词一次
+     */
+    public List<IntEncoding> encodeMultiPairs(String query, List<String> docs, int maxSeqLength) {
+        int[] queryIds = cachedTokenizeToIds(query, maxSeqLength - 3);
+        List<IntEncoding> encodings = new ArrayList<>(docs.size());
+        for (String doc : docs) {
+            encodings.add(encodeIdsPair(queryIds, tokenizeToIds(doc, maxSeqLength - 3), maxSeqLength));
         }
-        tokens.add(sepToken);
-        segmentIds.add(0);
+        return encodings;
+    }
+
+    /**
+     * 一个 query 和多个 doc 组成句对编码, query 只分词一次, doc 在 ForkJoinPool 中并行分词, 结果顺序与 docs 一致.
+     * docs 数量小于 parallelThreshold 时在当前线程执行
+     *
+     * @param pool 为 null 时使用 ForkJoinPool.commonPool()
+     */
+    public List<IntEncoding> encodeMultiPairs(String query, List<String> docs, int maxSeqLength, ForkJoinPool pool) {
+        if (docs.size() < parallelThreshold) {
+            return encodeMultiPairs(query, docs, maxSeqLength);
+        }
+        int[] queryIds = cachedTokenizeToIds(query, maxSeqLength - 3);
+        IntEncoding[] encodings = new IntEncoding[docs.size()];
+        ForkJoinPool executor = pool == null ? ForkJoinPool.commonPool() : pool;
+        int leafSize = Math.max(1, docs.size() / (executor.getParallelism() * 4));
+        executor.invoke(new EncodePairsTask(queryIds, docs, maxSeqLength, encodings, 0, docs.size(), leafSize));
+        return Arrays.asList(encodings);
+    }
+
+    /**
+     * 按区间二分的并行编码任务, 每个 doc 的结果写入 encodings 的对应位置
+     */
+    private class EncodePairsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
-        List<Integer> inputIds = convertTokensToIds(tokens);
-        List<Integer> inputMask = new ArrayList<>();
+        private final int[] queryIds;
+        private final List<String> docs;
+        private final int maxSeqLength;
+        private final IntEncoding[] encodings;
+        private final int from;
+        private final int to;
+        private final int leafSize;
 
-        for (int i = 0; i < inputIds.size(); i++) {
-            inputMask.add(1);
+        EncodePairsTask(int[] queryIds, List<String> docs, int maxSeqLength, IntEncoding[] encodings,
+                        int from, int to, int leafSize) {
+            this.queryIds = queryIds;
+            this.docs = docs;
+            this.maxSeqLength = maxSeqLength;
+            this.encodings = encodings;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
         }
 
-        while (inputIds.size() < maxSeqLength) {
-            inputIds.add(0);
-            inputMask.add(0);
-            segmentIds.add(0);
+        @Override
+        protected void compute() {
+            if (to - from <= leafSize) {
+                IntList buffer = new IntList();
+                for (int i = from; i < to; i++) {
+                    buffer.clear();
+                    tokenizeToIds(docs.get(i), buffer, maxSeqLength - 3);
+                    encodings[i] = encodeIdsPair(queryIds, buffer.toArray(), maxSeqLength);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new EncodePairsTask(queryIds, docs, maxSeqLength, encodings, from, mid, leafSize),
+                    new EncodePairsTask(queryIds, docs, maxSeqLength, encodings, mid, to, leafSize));
         }
+    }
 
-        return new Encoding(inputIds, inputMask, segmentIds);
+    ///////////////////////////////////////////////////////////////////////////
+    // 批量编码: 结果按行优先写入连续的 [batch, seqLength] 缓冲区
+
+    /**
+     * 批量单句编码
+     *
+     * @param dynamicPadding true: 只 padding 到本批最长序列的长度; false: padding 到 maxSeqLength
+     */
+    public BatchEncoding encodeBatch(List<String> texts, int maxSeqLength, boolean dynamicPadding) {
+        int[][] ids = tokenizeAllToIds(texts, maxSeqLength - 2);
+        int seqLength = batchSeqLength(null, ids, maxSeqLength, dynamicPadding);
+        int size = texts.size() * seqLength;
+        long[] inputIds = new long[size];
+        long[] inputMask = new long[size];
+        long[] segmentIds = new long[size];
+        writeBatch(null, ids, seqLength, maxSeqLength,
+                LongBuffer.wrap(inputIds), LongBuffer.wrap(inputMask), LongBuffer.wrap(segmentIds));
+        return new BatchEncoding(texts.size(), seqLength, inputIds, inputMask, segmentIds);
     }
 
     /**
-     * 句对映射id
+     * 批量单句编码, 从各缓冲区当前 position 开始写入, 可以是 ByteBuffer.allocateDirect().asLongBuffer() 得到的堆外缓冲区
+     *
+     * @return 实际的 seqLength
      */
-    public Encoding getTokenIdsPair(List<String> tokensQuery, List<String> tokensDoc, int maxSeqLength) {
-        // truncation： 由于要添加 CLS，2个SEP 3个标记 token，这里要让出 3 个位置
-        if (tokensQuery.size() + tokensDoc.size() > maxSeqLength - 3) {
-            int delta = maxSeqLength - 3 - tokensQuery.size() - tokensDoc.size();
-            // 差值为偶数，各裁剪一半，为奇数，doc多裁剪1个
-            if (delta % 2 == 0) {
-                tokensQuery = new ArrayList<>(tokensQuery.subList(0, tokensQuery.size() - delta / 2));
-                tokensDoc = new ArrayList<>(tokensDoc.subList(0, tokensDoc.size() - delta / 2));
+    public int encodeBatch(List<String> texts, int maxSeqLength, boolean dynamicPadding,
+                           LongBuffer inputIds, LongBuffer inputMask, LongBuffer segmentIds) {
+        int[][] ids = tokenizeAllToIds(texts, maxSeqLength - 2);
+        int seqLength = batchSeqLength(null, ids, maxSeqLength, dynamicPadding);
+        writeBatch(null, ids, seqLength, maxSeqLength, inputIds, inputMask, segmentIds);
+        return seqLength;
+    }
+
+    /**
+     * 一个 query 和多个 doc 组成句对批量编码, query 只分词一次
+     *
+     * @param dynamicPadding true: 只 padding 到本批最长序列的长度; false: padding 到 maxSeqLength
+     */
+    public BatchEncoding encodeBatchPairs(String query, List<String> docs, int maxSeqLength, boolean dynamicPadding) {
+        int[] queryIds = cachedTokenizeToIds(query, maxSeqLength - 3);
+        int[][] docIds = tokenizeAllToIds(docs, maxSeqLength - 3);
+        int seqLength = batchSeqLength(queryIds, docIds, maxSeqLength, dynamicPadding);
+        int size = docs.size() * seqLength;
+        long[] inputIds = new long[size];
+        long[] inputMask = new long[size];
+        long[] segmentIds = new long[size];
+        writeBatch(queryIds, docIds, seqLength, maxSeqLength,
+                LongBuffer.wrap(inputIds), LongBuffer.wrap(inputMask), LongBuffer.wrap(segmentIds));
+        return new BatchEncoding(docs.size(), seqLength, inputIds, inputMask, segmentIds);
+    }
+
+    /**
+     * 句对批量编码, 从各缓冲区当前 position 开始写入
+     *
+     * @return 实际的 seqLength
+     */
+    public int encodeBatchPairs(String query, List<String> docs, int maxSeqLength, boolean dynamicPadding,
+                                LongBuffer inputIds, LongBuffer inputMask, LongBuffer segmentIds) {
+        int[] queryIds = cachedTokenizeToIds(query, maxSeqLength - 3);
+        int[][] docIds = tokenizeAllToIds(docs, maxSeqLength - 3);
+        int seqLength = batchSeqLength(queryIds, docIds, maxSeqLength, dynamicPadding);
+        writeBatch(queryIds, docIds, seqLength, maxSeqLength, inputIds, inputMask, segmentIds);
+        return seqLength;
+    }
+
+    /**
+     * 分词并截断到最多 limit 个 id, 开启整句缓存时先查缓存.
+     * 单句最多保留 maxSeqLength - 2 个 id, 句对中 query 裁剪后不超过 maxSeqLength - 3 个, 预先截断不影响裁剪结果
+     */
+    private int[] cachedTokenizeToIds(String text, int limit) {
+        if (textCache == null || text == null) {
+            return tokenizeToIds(text, limit);
+        }
+        SpecialTokens tokens = specialTokens;
+        TextKey key = new TextKey(text, limit, tokens.generation);
+        int[] ids = textCache.getIfPresent(key);
+        if (ids == null) {
+            IntList output = new IntList();
+            tokenizeToIds(text, output, tokens, limit);
+            ids = output.toArray();
+            textCache.put(key, ids);
+        }
+        return ids;
+    }
+
+    private int[] tokenizeToIds(String text, int limit) {
+        IntList ids = new IntList();
+        tokenizeToIds(text, ids, limit);
+        return ids.toArray();
+    }
+
+    /**
+     * 各文本最多保留 limit 个 id, 单句 maxSeqLength - 2 个, 句对中的 doc maxSeqLength - 3 个, 预先截断不影响裁剪结果
+     */
+    private int[][] tokenizeAllToIds(List<String> texts, int limit) {
+        int[][] ids = new int[texts.size()][];
+        IntList buffer = new IntList();
+        for (int i = 0; i < ids.length; i++) {
+            buffer.clear();
+            tokenizeToIds(texts.get(i), buffer, limit);
+            ids[i] = buffer.toArray();
+        }
+        return ids;
+    }
+
+    /**
+     * @param queryIds 为 null 时是单句, 否则是 query 与 ids 中各序列组成的句对
+     */
+    private int batchSeqLength(int[] queryIds, int[][] ids, int maxSeqLength, boolean dynamicPadding) {
+        if (!dynamicPadding) {
+            return maxSeqLength;
+        }
+        int seqLength = 0;
+        for (int[] row : ids) {
+            seqLength = Math.max(seqLength, rowLength(queryIds, row, maxSeqLength));
+        }
+        return seqLength;
+    }
+
+    private int rowLength(int[] queryIds, int[] ids, int maxSeqLength) {
+        if (queryIds == null) {
+            return Math.min(ids.length, maxSeqLength - 2) + 2;
+        }
+        int budget = maxSeqLength - 3;
+        return truncateFirst(queryIds.length, ids.length, budget) + truncateSecond(queryIds.length, ids.length, budget) + 3;
+    }
+
+    private void writeBatch(int[] queryIds, int[][] ids, int seqLength, int maxSeqLength,
+                            LongBuffer inputIds, LongBuffer inputMask, LongBuffer segmentIds) {
+        int clsTokenId = encodeToken(clsToken);
+        int sepTokenId = encodeToken(sepToken);
+        int budget = maxSeqLength - 3;
+        for (int[] row : ids) {
+            int length = 1;
+            inputIds.put(clsTokenId);
+            segmentIds.put(0);
+            if (queryIds == null) {
+                length += putIds(row, Math.min(row.length, maxSeqLength - 2), 0, inputIds, segmentIds);
             } else {
-                tokensQuery = new ArrayList<>(tokensQuery.subList(0, tokensQuery.size() - delta / 2));
-                tokensDoc = new ArrayList<>(tokensDoc.subList(0, tokensDoc.size() - delta / 2 - 1));
+                length += putIds(queryIds, truncateFirst(queryIds.length, row.length, budget), 0, inputIds, segmentIds);
+                inputIds.put(sepTokenId);
+                segmentIds.put(0);
+                length += 1 + putIds(row, truncateSecond(queryIds.length, row.length, budget), 1, inputIds, segmentIds);
+            }
+            inputIds.put(sepTokenId);
+            segmentIds.put(queryIds == null ? 0 : 1);
+            length++;
+            for (int i = 0; i < seqLength; i++) {
+                inputMask.put(i < length ? 1 : 0);
+            }
+            for (int i = length; i < seqLength; i++) {
+                inputIds.put(padTokenId);
+                segmentIds.put(0);
             }
         }
+    }
 
-        List<String> tokens = new ArrayList<>();
-        List<Integer> segmentIds = new ArrayList<>();
-        tokens.add(clsToken);
-        segmentIds.add(0);
-        for (String token : tokensQuery) {
-            tokens.add(token);
-            segmentIds.add(0);
+    private static int putIds(int[] ids, int length, int segmentId, LongBuffer inputIds, LongBuffer segmentIds) {
+        for (int i = 0; i < length; i++) {
+            inputIds.put(ids[i]);
+            segmentIds.put(segmentId);
         }
-        tokens.add(sepToken);
-        segmentIds.add(0);
+        return length;
+    }
 
-        for (String token : tokensDoc) {
-            tokens.add(token);
-            segmentIds.add(1);
+    /**
+     * 与 encodeSingle() 相同, 同时输出每个 token 在 query 中的字符区间, 见 IntEncoding.getStartOffsets().
+     * 不使用整句缓存
+     */
+    public IntEncoding encodeSingleWithOffsets(String query, int maxSeqLength) {
+        IntList queryIds = new IntList();
+        IntList queryOffsets = new IntList();
+        tokenizeToIds(query, queryIds, queryOffsets);
+        int queryLength = Math.min(queryIds.size(), maxSeqLength - 2);
+        IntEncoding encoding = encodeIdsSingle(queryIds.toArray(), maxSeqLength);
+        int[] startOffsets = new int[maxSeqLength];
+        int[] endOffsets = new int[maxSeqLength];
+        putOffsets(queryOffsets, queryLength, 1, startOffsets, endOffsets);
+        return new IntEncoding(encoding.getInputIdsArray(), encoding.getInputMaskArray(), encoding.getSegmentIdsArray(),
+                startOffsets, endOffsets);
+    }
+
+    /**
+     * 与 encodePair() 相同, 同时输出每个 token 在 query 或 doc 中的字符区间, 见 IntEncoding.getStartOffsets().
+     * 不使用整句缓存
+     */
+    public IntEncoding encodePairWithOffsets(String query, String doc, int maxSeqLength) {
+        IntList queryIds = new IntList();
+        IntList queryOffsets = new IntList();
+        tokenizeToIds(query, queryIds, queryOffsets);
+        IntList docIds = new IntList();
+        IntList docOffsets = new IntList();
+        tokenizeToIds(doc, docIds, docOffsets);
+        int budget = maxSeqLength - 3;
+        int queryLength = truncateFirst(queryIds.size(), docIds.size(), budget);
+        int docLength = truncateSecond(queryIds.size(), docIds.size(), budget);
+        IntEncoding encoding = encodeIdsPair(queryIds.toArray(), docIds.toArray(), maxSeqLength);
+        int[] startOffsets = new int[maxSeqLength];
+        int[] endOffsets = new int[maxSeqLength];
+        putOffsets(queryOffsets, queryLength, 1, startOffsets, endOffsets);
+        putOffsets(docOffsets, docLength, queryLength + 2, startOffsets, endOffsets);
+        return new IntEncoding(encoding.getInputIdsArray(), encoding.getInputMaskArray(), encoding.getSegmentIdsArray(),
+                startOffsets, endOffsets);
+    }
+
+    private static void putOffsets(IntList offsets, int length, int pos, int[] startOffsets, int[] endOffsets) {
+        for (int k = 0; k < length; k++) {
+            startOffsets[pos + k] = offsets.get(2 * k);
+            endOffsets[pos + k] = offsets.get(2 * k + 1);
         }
-        tokens.add(sepToken);
-        segmentIds.add(1);
+    }
 
-        List<Integer> inputIds = convertTokensToIds(tokens);
-        List<Integer> inputMask = new ArrayList<>();
+    ///////////////////////////////////////////////////////////////////////////
+    // 长文本滑动窗口: 只分词一次, 各窗口是同一组数组中连续的 maxSeqLength 段
 
-        for (int i = 0; i < inputIds.size(); i++) {
-            inputMask.add(1);
+    /**
+     * 单句超长时按滑动窗口输出全部片段, 与 transformers 的 return_overflowing_tokens=True, stride=stride 相同:
+     * 每个窗口最多 maxSeqLength - 2 个 token, 相邻窗口重叠 stride 个 token. 不超长时只有一个窗口.
+     * 返回的 IntEncoding 共享底层数组, 见 IntEncoding.getOffset()
+     */
+    public List<IntEncoding> encodeSingleWindows(String text, int maxSeqLength, int stride) {
+        return encodeIdsSingleWindows(tokenizeToIds(text), maxSeqLength, stride);
+    }
+
+    public List<IntEncoding> encodeIdsSingleWindows(int[] ids, int maxSeqLength, int stride) {
+        int windowLength = maxSeqLength - 2;
+        int windows = windowCount(ids.length, windowLength, stride);
+        int[] inputIds = new int[windows * maxSeqLength];
+        int[] inputMask = new int[windows * maxSeqLength];
+        int[] segmentIds = new int[windows * maxSeqLength];
+        List<IntEncoding> encodings = new ArrayList<>(windows);
+        for (int w = 0; w < windows; w++) {
+            int from = w * (windowLength - stride);
+            int offset = w * maxSeqLength;
+            writeSingle(ids, from, Math.min(windowLength, ids.length - from), maxSeqLength,
+                    inputIds, inputMask, segmentIds, offset);
+            encodings.add(new IntEncoding(inputIds, inputMask, segmentIds, offset, maxSeqLength));
         }
+        return encodings;
+    }
+
+    /**
+     * 句对中 doc 超长时按滑动窗口输出全部片段, 每个窗口都包含完整的 query, 与 transformers 的
+     * truncation="only_second", return_overflowing_tokens=True, stride=stride 相同:
+     * 每个窗口最多 maxSeqLength - 3 - query 长度个 doc token, 相邻窗口重叠 stride 个 token.
+     * 返回的 IntEncoding 共享底层数组, 见 IntEncoding.getOffset()
+     */
+    public List<IntEncoding> encodePairWindows(String query, String doc, int maxSeqLength, int stride) {
+        return encodeIdsPairWindows(tokenizeToIds(query), tokenizeToIds(doc), maxSeqLength, stride);
+    }
 
-        while (inputIds.size() < maxSeqLength) {
-            inputIds.add(0);
-            inputMask.add(0);
-            segmentIds.add(0);
+    public List<IntEncoding> encodeIdsPairWindows(int[] queryIds, int[] docIds, int maxSeqLength, int stride) {
+        int windowLength = maxSeqLength - 3 - queryIds.length;
+        if (windowLength <= 0) {
+            throw new IllegalArgumentException("query has " + queryIds.length + " tokens, no room for doc in "
+                    + maxSeqLength);
+        }
+        int windows = windowCount(docIds.length, windowLength, stride);
+        int[] inputIds = new int[windows * maxSeqLength];
+        int[] inputMask = new int[windows * maxSeqLength];
+        int[] segmentIds = new int[windows * maxSeqLength];
+        List<IntEncoding> encodings = new ArrayList<>(windows);
+        for (int w = 0; w < windows; w++) {
+            int from = w * (windowLength - stride);
+            int offset = w * maxSeqLength;
+            writePair(queryIds, queryIds.length, docIds, from, Math.min(windowLength, docIds.length - from),
+                    maxSeqLength, inputIds, inputMask, segmentIds, offset);
+            encodings.add(new IntEncoding(inputIds, inputMask, segmentIds, offset, maxSeqLength));
         }
-        return new Encoding(inputIds, inputMask, segmentIds);
+        return encodings;
     }
 
-    public Encoding tokenizeSingle(String query, int maxSeqLength) {
-        List<String> tokensQuery = tokenize(query);
-        return getTokenIdsSingle(tokensQuery, maxSeqLength);
+    /**
+     * 窗口数: 窗口起点依次为 0, step, 2 * step..., step = windowLength - stride, 直到窗口覆盖到末尾
+     */
+    static int windowCount(int length, int windowLength, int stride) {
+        if (stride < 0 || stride >= windowLength) {
+            throw new IllegalArgumentException("stride must be in [0, " + windowLength + "), but was " + stride);
+        }
+        if (length <= windowLength) {
+            return 1;
+        }
+        int step = windowLength - stride;
+        return 1 + (length - windowLength + step - 1) / step;
     }
 
-    public Encoding tokenizePair(String query, String doc, int maxSeqLength) {
-        List<String> tokensQuery = tokenize(query);
-        List<String> tokensDoc = tokenize(doc);
-        return getTokenIdsPair(tokensQuery, tokensDoc, maxSeqLength);
+    /**
+     * 单句 id 序列添加 [CLS] [SEP] 并 padding 到 maxSeqLength.
+     * truncation: 由于要添加 CLS 和 SEP 两个标记 token, 这里要让出 2 个位置
+     */
+    public IntEncoding encodeIdsSingle(int[] queryIds, int maxSeqLength) {
+        int[] inputIds = new int[maxSeqLength];
+        int[] inputMask = new int[maxSeqLength];
+        int[] segmentIds = new int[maxSeqLength];
+        writeSingle(queryIds, 0, Math.min(queryIds.length, maxSeqLength - 2), maxSeqLength,
+                inputIds, inputMask, segmentIds, 0);
+        return new IntEncoding(inputIds, inputMask, segmentIds);
     }
 
-    public List<Encoding> tokenizeMultiPairs(String query, List<String> docs, int maxSeqLength) {
-        List<String> tokensQuery = tokenize(query);
+    /**
+     * 句对 id 序列添加 [CLS] [SEP] [SEP] 并 padding 到 maxSeqLength.
+     * truncation: 由于要添加 CLS, 2个SEP 3个标记 token, 这里要让出 3 个位置.
+     * 与 huggingface 的 longest_first 策略一致: 每次从较长的一句末尾裁剪 1 个 token, 一样长时裁剪 doc
+     */
+    public IntEncoding encodeIdsPair(int[] queryIds, int[] docIds, int maxSeqLength) {
+        int[] inputIds = new int[maxSeqLength];
+        int[] inputMask = new int[maxSeqLength];
+        int[] segmentIds = new int[maxSeqLength];
+        int budget = maxSeqLength - 3;
+        int queryLength = truncateFirst(queryIds.length, docIds.length, budget);
+        int docLength = truncateSecond(queryIds.length, docIds.length, budget);
+        writePair(queryIds, queryLength, docIds, 0, docLength, maxSeqLength, inputIds, inputMask, segmentIds, 0);
+        return new IntEncoding(inputIds, inputMask, segmentIds);
+    }
 
-        List<Encoding> tokenIds = new ArrayList<>();
-        for (String doc : docs) {
-            List<String> tokensDoc = tokenize(doc);
-            Encoding e = getTokenIdsPair(tokensQuery, tokensDoc, maxSeqLength);
-            tokenIds.add(e);
+    /**
+     * longest_first 裁剪后第一句的长度
+     */
+    static int truncateFirst(int firstLength, int secondLength, int budget) {
+        if (firstLength + secondLength <= budget) {
+            return firstLength;
         }
-        return tokenIds;
+        return Math.max(0, Math.min(firstLength, Math.max(budget - secondLength, (budget + 1) / 2)));
+    }
+
+    /**
+     * longest_first 裁剪后第二句的长度
+     */
+    static int truncateSecond(int firstLength, int secondLength, int budget) {
+        if (firstLength + secondLength <= budget) {
+            return secondLength;
+        }
+        return Math.max(0, Math.min(secondLength, Math.max(budget - firstLength, budget / 2)));
     }
-}
 
+    /**
+     * 写入 [CLS] query[queryFrom, queryFrom + queryLength) [SEP] [PAD]..., 共 maxSeqLength 个位置, 从 offset 开始
+     */
+    void writeSingle(int[] queryIds, int queryFrom, int queryLength, int maxSeqLength,
+                     int[] inputIds, int[] inputMask, int[] segmentIds, int offset) {
+        int pos = offset;
+        inputIds[pos++] = encodeToken(clsToken);
+        System.arraycopy(queryIds, queryFrom, inputIds, pos, queryLength);
+        pos += queryLength;
+        inputIds[pos++] = encodeToken(sepToken);
+        finish(offset, pos, offset + maxSeqLength, inputIds, inputMask);
+        Arrays.fill(segmentIds, offset, offset + maxSeqLength, 0);
+    }
+
+    /**
+     * 写入 [CLS] query [SEP] doc[docFrom, docFrom + docLength) [SEP] [PAD]..., 共 maxSeqLength 个位置, 从 offset 开始
+     */
+    void writePair(int[] queryIds, int queryLength, int[] docIds, int docFrom, int docLength, int maxSeqLength,
+                   int[] inputIds, int[] inputMask, int[] segmentIds, int offset) {
+        int sepTokenId = encodeToken(sepToken);
+        int pos = offset;
+        inputIds[pos++] = encodeToken(clsToken);
+        System.arraycopy(queryIds, 0, inputIds, pos, queryLength);
+        pos += queryLength;
+        inputIds[pos++] = sepTokenId;
+        Arrays.fill(segmentIds, offset, pos, 0);
+        int docStart = pos;
+        System.arraycopy(docIds, docFrom, inputIds, pos, docLength);
+        pos += docLength;
+        inputIds[pos++] = sepTokenId;
+        Arrays.fill(segmentIds, docStart, pos, 1);
+        Arrays.fill(segmentIds, pos, offset + maxSeqLength, 0);
+        finish(offset, pos, offset + maxSeqLength, inputIds, inputMask);
+    }
+
+    private void finish(int start, int tokenEnd, int end, int[] inputIds, int[] inputMask) {
+        Arrays.fill(inputMask, start, tokenEnd, 1);
+        Arrays.fill(inputMask, tokenEnd, end, 0);
+        Arrays.fill(inputIds, tokenEnd, end, padTokenId);
+    }
+
+    private static int[] toIntArray(List<Integer> ids) {
+        int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,146 @@
+package com.helipy.text.hfberttokenizer;
+
+import com.google.common.primitives.Ints;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 基于 int[] 的编码结果, 不做 Integer 装箱, 可直接用于构造 ONNX Runtime / TF-Java 的输入张量.
+ * 三个序列可以是共享数组中 [offset, offset + length) 的一段视图.
+ *
+ * @author wangchuangfeng
+ */
+public class IntEncoding {
+    /**
+     * token id 序列
+     */
+    private final int[] inputIds;
+    /**
+     * mask 序列. 实际有字符的位置为 1, padding 字符为 0
+     */
+    private final int[] inputMask;
+    /**
+     * 片段标记,用于句子对. 第一个句子(包括CLS标记和第一个句子后面的分隔符):0, 第二个句子(包括第二个句子后面的分隔符):1
+     */
+    private final int[] segmentIds;
+    /**
+     * 每个位置的 token 在原文本中的字符区间 [startOffsets[i], endOffsets[i]), 特殊标记和 padding 为 [0, 0).
+     * 句对中 query 和 doc 的区间分别相对各自的文本, 用 segmentIds 区分. 未要求输出时为 null
+     */
+    private final int[] startOffsets;
+    private final int[] endOffsets;
+    private final int offset;
+    private final int length;
+
+    public IntEncoding(int[] inputIds, int[] inputMask, int[] segmentIds) {
+        this(inputIds, inputMask, segmentIds, 0, inputIds.length);
+    }
+
+    public IntEncoding(int[] inputIds, int[] inputMask, int[] segmentIds, int offset, int length) {
+        this(inputIds, inputMask, segmentIds, null, null, offset, length);
+    }
+
+    public IntEncoding(int[] inputIds, int[] inputMask, int[] segmentIds, int[] startOffsets, int[] endOffsets) {
+        this(inputIds, inputMask, segmentIds, startOffsets, endOffsets, 0, inputIds.length);
+    }
+
+    public IntEncoding(int[] inputIds, int[] inputMask, int[] segmentIds, int[] startOffsets, int[] endOffsets,
+                       int offset, int length) {
+        this.inputIds = inputIds;
+        this.inputMask = inputMask;
+        this.segmentIds = segmentIds;
+        this.startOffsets = startOffsets;
+        this.endOffsets = endOffsets;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int getInputId(int index) {
+        return inputIds[offset + checkIndex(index)];
+    }
+
+    public int getInputMask(int index) {
+        return inputMask[offset + checkIndex(index)];
+    }
+
+    public int getSegmentId(int index) {
+        return segmentIds[offset + checkIndex(index)];
+    }
+
+    /**
+     * 视图覆盖整个数组时直接返回底层数组, 否则返回拷贝
+     */
+    public int[] getInputIds() {
+        return slice(inputIds);
+    }
+
+    public int[] getInputMask() {
+        return slice(inputMask);
+    }
+
+    public int[] getSegmentIds() {
+        return slice(segmentIds);
+    }
+
+    /**
+     * token 在原文本中的起始位置, 未要求输出 offset 时为 null
+     */
+    public int[] getStartOffsets() {
+        return startOffsets == null ? null : slice(startOffsets);
+    }
+
+    /**
+     * token 在原文本中的结束位置(不含), 未要求输出 offset 时为 null
+     */
+    public int[] getEndOffsets() {
+        return endOffsets == null ? null : slice(endOffsets);
+    }
+
+    /**
+     * 底层共享数组, 有效区间为 [getOffset(), getOffset() + length())
+     */
+    public int[] getInputIdsArray() {
+        return inputIds;
+    }
+
+    public int[] getInputMaskArray() {
+        return inputMask;
+    }
+
+    public int[] getSegmentIdsArray() {
+        return segmentIds;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * 转为 List&lt;Integer&gt; 接口的 Encoding, 列表为可修改的 ArrayList, 与底层数组互不影响
+     */
+    public Encoding toEncoding() {
+        return new Encoding(
+                new ArrayList<>(Ints.asList(inputIds).subList(offset, offset + length)),
+                new ArrayList<>(Ints.asList(inputMask).subList(offset, offset + length)),
+                new ArrayList<>(Ints.asList(segmentIds).subList(offset, offset + length)));
+    }
+
+    private int[] slice(int[] array) {
+        if (offset == 0 && length == array.length) {
+            return array;
+        }
+        return Arrays.copyOfRange(array, offset, offset + length);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+        }
+        return index;
+    }
+}
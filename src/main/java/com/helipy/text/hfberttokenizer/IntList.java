@@ -0,0 +1,88 @@
+package com.helipy.text.hfberttokenizer;
+
+import java.util.Arrays;
+
+/**
+ * 可增长的 int 序列, 用于在分词热路径上收集 token id, 避免 Integer 装箱.
+ * 非线程安全, 可 clear() 后复用.
+ *
+ * @author wangchuangfeng
+ */
+public final class IntList {
+    private int[] elements;
+    private int size;
+
+    public IntList() {
+        this(16);
+    }
+
+    public IntList(int initialCapacity) {
+        this.elements = new int[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(int value) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size << 1);
+        }
+        elements[size++] = value;
+    }
+
+    public void addAll(int[] values) {
+        if (size + values.length > elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(size << 1, size + values.length));
+        }
+        System.arraycopy(values, 0, elements, size, values.length);
+        size += values.length;
+    }
+
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        return elements[index];
+    }
+
+    public void set(int index, int value) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        elements[index] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 截断到指定长度, 长度不足时不变
+     */
+    public void truncate(int newSize) {
+        if (newSize < size) {
+            size = Math.max(newSize, 0);
+        }
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    /**
+     * [from, size) 区间的副本
+     */
+    public int[] toArray(int from) {
+        return Arrays.copyOfRange(elements, from, size);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,259 @@
+package com.helipy.text.hfberttokenizer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 流式读取 json, 用于加载 huggingface 的 added_tokens.json, special_tokens_map.json 等配置文件,
+ * 不依赖 json 库, 也不把整个文件读成对象树.
+ * <p>
+ * 只做宽松解析: 逗号和冒号当作分隔符跳过, 不校验其位置. 对象的 key 用 nextName() 读取.
+ *
+ * @author wangchuangfeng
+ */
+final class JsonReader implements Closeable {
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    private final StringBuilder scratch = new StringBuilder();
+
+    JsonReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * 下一个值的类型, 不消费
+     */
+    Token peek() throws IOException {
+        int c = peekChar();
+        switch (c) {
+            case -1:
+                return Token.END_DOCUMENT;
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '}':
+                return Token.END_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case ']':
+                return Token.END_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            default:
+                return Token.NUMBER;
+        }
+    }
+
+    /**
+     * 当前对象或数组中是否还有元素
+     */
+    boolean hasNext() throws IOException {
+        int c = peekChar();
+        return c != '}' && c != ']' && c != -1;
+    }
+
+    void beginObject() throws IOException {
+        expect('{');
+    }
+
+    void endObject() throws IOException {
+        expect('}');
+    }
+
+    void beginArray() throws IOException {
+        expect('[');
+    }
+
+    void endArray() throws IOException {
+        expect(']');
+    }
+
+    String nextName() throws IOException {
+        return nextString();
+    }
+
+    String nextString() throws IOException {
+        expect('"');
+        scratch.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return scratch.toString();
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'u':
+                        c = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw syntaxError("invalid unicode escape");
+                            }
+                            c = (c << 4) | digit;
+                        }
+                        break;
+                    default:
+                        // \" \\ \/
+                        break;
+                }
+            }
+            if (c == -1) {
+                throw syntaxError("unterminated string");
+            }
+            scratch.append((char) c);
+        }
+    }
+
+    int nextInt() throws IOException {
+        String number = nextNumber();
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            throw syntaxError("expected int but was " + number);
+        }
+    }
+
+    boolean nextBoolean() throws IOException {
+        String literal = nextLiteral();
+        if ("true".equals(literal)) {
+            return true;
+        }
+        if ("false".equals(literal)) {
+            return false;
+        }
+        throw syntaxError("expected boolean but was " + literal);
+    }
+
+    void nextNull() throws IOException {
+        String literal = nextLiteral();
+        if (!"null".equals(literal)) {
+            throw syntaxError("expected null but was " + literal);
+        }
+    }
+
+    /**
+     * 跳过下一个值, 包括嵌套的对象和数组
+     */
+    void skipValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case STRING:
+                nextString();
+                break;
+            case END_OBJECT:
+            case END_ARRAY:
+            case END_DOCUMENT:
+                throw syntaxError("expected a value");
+            default:
+                nextLiteral();
+                break;
+        }
+    }
+
+    private String nextNumber() throws IOException {
+        if (peek() != Token.NUMBER) {
+            throw syntaxError("expected number");
+        }
+        return nextLiteral();
+    }
+
+    private String nextLiteral() throws IOException {
+        peekChar();
+        scratch.setLength(0);
+        while (true) {
+            int c = pos < limit || fill() ? buffer[pos] : -1;
+            if (c == -1 || c == ',' || c == ':' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                break;
+            }
+            scratch.append((char) c);
+            pos++;
+        }
+        if (scratch.length() == 0) {
+            throw syntaxError("expected a value");
+        }
+        return scratch.toString();
+    }
+
+    private void expect(char expected) throws IOException {
+        if (peekChar() != expected) {
+            throw syntaxError("expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    /**
+     * 跳过空白和分隔符, 返回下一个字符, 不消费
+     */
+    private int peekChar() throws IOException {
+        while (pos < limit || fill()) {
+            char c = buffer[pos];
+            if (c == ',' || c == ':' || Character.isWhitespace(c)) {
+                pos++;
+            } else {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private int read() throws IOException {
+        return pos < limit || fill() ? buffer[pos++] : -1;
+    }
+
+    private boolean fill() throws IOException {
+        int n = reader.read(buffer, 0, buffer.length);
+        pos = 0;
+        limit = Math.max(n, 0);
+        return n > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("malformed json: " + message);
+    }
+}
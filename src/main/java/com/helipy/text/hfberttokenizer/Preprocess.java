@@ -13,6 +13,16 @@ import java.nio.charset.StandardCharsets;
  * @author wangchuangfeng
  */
 public class Preprocess {
+    /**
+     * 全角 ASCII 字符区间 ！(U+FF01) - ～(U+FF5E), 减去偏移量即为对应的半角字符
+     */
+    private static final char FULL_WIDTH_START = '\uFF01';
+    private static final char FULL_WIDTH_END = '\uFF5E';
+    private static final int FULL_WIDTH_OFFSET = 0xFEE0;
+    /**
+     * 全角空格
+     */
+    private static final char IDEOGRAPHIC_SPACE = '\u3000';
 
     public Preprocess() {
     }
@@ -46,35 +56,38 @@ public class Preprocess {
     }
 
     /**
-     * 全角转半角
+     * 全角转半角: U+FF01 - U+FF5E 映射到 ASCII U+0021 - U+007E, 全角空格 U+3000 映射到空格, 其余字符不变
      */
     public String full2HalfChange(String qjChineseStr) {
-        StringBuilder outStrBuf = new StringBuilder();
-        String tmpStr = "";
-        byte[] b = null;
-        try {
-            for (int i = 0; i < qjChineseStr.length(); i++) {
-                tmpStr = qjChineseStr.substring(i, i + 1);
-                if (tmpStr.equals("　")) {
-                    outStrBuf.append(" ");
-                    continue;
-                }
-                // "unicode"
-                b = tmpStr.getBytes(StandardCharsets.UTF_16);
-                // 得到 unicode 字节数据
-                if (b[2] == -1) {
-                    // 表示全角？
-                    b[3] = (byte) (b[3] + 32);
-                    b[2] = 0;
-                    outStrBuf.append(new String(b, StandardCharsets.UTF_16));
-                } else {
-                    outStrBuf.append(tmpStr);
-                }
-            }
-        } catch (Exception e) {
-            // log.error("全角转半角字符 error. str: {}. error=", qjChineseStr, e);
+        int length = qjChineseStr.length();
+        int i = 0;
+        while (i < length && full2Half(qjChineseStr.charAt(i)) == qjChineseStr.charAt(i)) {
+            i++;
+        }
+        if (i == length) {
             return qjChineseStr;
         }
-        return outStrBuf.toString();
+        char[] chars = qjChineseStr.toCharArray();
+        full2Half(chars, i, length);
+        return new String(chars);
+    }
+
+    /**
+     * 原地将 chars 的 [from, to) 区间全角转半角
+     */
+    public static void full2Half(char[] chars, int from, int to) {
+        for (int i = from; i < to; i++) {
+            chars[i] = full2Half(chars[i]);
+        }
+    }
+
+    /**
+     * 单个字符全角转半角. 代理字符不在转换范围内, 原样返回, 因此逐 char 调用不会破坏 surrogate pair
+     */
+    public static char full2Half(char c) {
+        if (c >= FULL_WIDTH_START && c <= FULL_WIDTH_END) {
+            return (char) (c - FULL_WIDTH_OFFSET);
+        }
+        return c == IDEOGRAPHIC_SPACE ? ' ' : c;
     }
 }
@@ -0,0 +1,353 @@
+package com.helipy.text.hfberttokenizer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 读取 huggingface tokenizers 保存的 tokenizer.json, 写入 FullTokenizer.Builder.
+ * <p>
+ * 单遍流式解析: 词表直接读入 token 到 id 的映射, 其余不关心的字段(decoder, truncation 等)跳过, 不生成整个文件的对象树.
+ * 支持 bert 的配置: BertNormalizer, BertPreTokenizer, WordPiece 模型, 以及 [CLS] A [SEP] (B [SEP]) 形式的
+ * TemplateProcessing 或 BertProcessing. 其他配置无法等价实现, 抛出 IllegalArgumentException.
+ *
+ * @author wangchuangfeng
+ */
+final class TokenizerJsonLoader {
+
+    private TokenizerJsonLoader() {
+    }
+
+    static void load(JsonReader reader, FullTokenizer.Builder builder) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "added_tokens":
+                    readAddedTokens(reader, builder);
+                    break;
+                case "normalizer":
+                    readNormalizer(reader, builder);
+                    break;
+                case "pre_tokenizer":
+                    readPreTokenizer(reader);
+                    break;
+                case "model":
+                    readModel(reader, builder);
+                    break;
+                case "post_processor":
+                    readPostProcessor(reader, builder);
+                    break;
+                case "padding":
+                    readPadding(reader, builder);
+                    break;
+                default:
+                    // version, truncation, decoder
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * [{"id": 0, "content": "[PAD]", "single_word": false, "lstrip": false, "rstrip": false,
+     * "normalized": false, "special": true}, ...]
+     * <p>
+     * 这里的标记都在原文上匹配, 不吸收两侧空白, 也不要求整词. normalized, lstrip, rstrip, single_word
+     * 任一为 true 时无法等价实现, 抛出 IllegalArgumentException. 缺少 normalized 时按 tokenizers 的默认值 !special
+     */
+    private static void readAddedTokens(JsonReader reader, FullTokenizer.Builder builder) throws IOException {
+        Map<String, Integer> addedTokens = new LinkedHashMap<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String content = null;
+            int id = -1;
+            boolean special = false;
+            Boolean normalized = null;
+            String option = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "content":
+                        content = reader.nextString();
+                        break;
+                    case "id":
+                        id = reader.nextInt();
+                        break;
+                    case "special":
+                        special = reader.nextBoolean();
+                        break;
+                    case "normalized":
+                        normalized = reader.nextBoolean();
+                        break;
+                    case "lstrip":
+                    case "rstrip":
+                    case "single_word":
+                        if (reader.nextBoolean()) {
+                            option = name;
+                        }
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            if (content == null || id < 0) {
+                throw new IllegalArgumentException("added token requires content and id");
+            }
+            if (normalized == null ? !special : normalized) {
+                option = "normalized";
+            }
+            if (option != null) {
+                throw new IllegalArgumentException("unsupported added token option: " + option + "=true for " + content);
+            }
+            addedTokens.put(content, id);
+        }
+        reader.endArray();
+        builder.addedTokens(addedTokens);
+    }
+
+    private static void readNormalizer(JsonReader reader, FullTokenizer.Builder builder) throws IOException {
+        String type = null;
+        boolean cleanText = true;
+        boolean handleChineseChars = true;
+        Boolean stripAccents = null;
+        boolean lowercase = true;
+        if (reader.peek() == JsonReader.Token.NULL) {
+            reader.nextNull();
+        } else {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "type":
+                        type = reader.nextString();
+                        break;
+                    case "clean_text":
+                        cleanText = reader.nextBoolean();
+                        break;
+                    case "handle_chinese_chars":
+                        handleChineseChars = reader.nextBoolean();
+                        break;
+                    case "strip_accents":
+                        if (reader.peek() == JsonReader.Token.NULL) {
+                            reader.nextNull();
+                        } else {
+                            stripAccents = reader.nextBoolean();
+                        }
+                        break;
+                    case "lowercase":
+                        lowercase = reader.nextBoolean();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        }
+        if (!"BertNormalizer".equals(type)) {
+            throw new IllegalArgumentException("unsupported normalizer: " + type);
+        }
+        if (!cleanText) {
+            throw new IllegalArgumentException("unsupported normalizer option: clean_text=false");
+        }
+        // tokenizers 按码点判断中文字符, 含辅助平面
+        builder.hfCompatible(true)
+                .tokenizeChineseChars(handleChineseChars)
+                .stripAccents(stripAccents)
+                .doLower(lowercase)
+                .caseSensitive(!lowercase);
+    }
+
+    private static void readPreTokenizer(JsonReader reader) throws IOException {
+        String type = readType(reader);
+        if (!"BertPreTokenizer".equals(type)) {
+            throw new IllegalArgumentException("unsupported pre_tokenizer: " + type);
+        }
+    }
+
+    /**
+     * {"type": "WordPiece", "unk_token": "[UNK]", "continuing_subword_prefix": "##",
+     * "max_input_chars_per_word": 100, "vocab": {"[PAD]": 0, ...}}
+     */
+    private static void readModel(JsonReader reader, FullTokenizer.Builder builder) throws IOException {
+        String type = null;
+        String prefix = WordPieceTrie.CONTINUATION_PREFIX;
+        Map<String, Integer> vocab = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "type":
+                    type = reader.nextString();
+                    break;
+                case "unk_token":
+                    builder.unkToken(reader.nextString());
+                    break;
+                case "continuing_subword_prefix":
+                    prefix = reader.nextString();
+                    break;
+                case "max_input_chars_per_word":
+                    builder.maxInputCharsPerWord(reader.nextInt());
+                    break;
+                case "vocab":
+                    vocab = new LinkedHashMap<>();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String token = reader.nextName();
+                        vocab.put(token, reader.nextInt());
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        if (!"WordPiece".equals(type)) {
+            throw new IllegalArgumentException("unsupported model: " + type);
+        }
+        if (!WordPieceTrie.CONTINUATION_PREFIX.equals(prefix)) {
+            throw new IllegalArgumentException("unsupported continuing_subword_prefix: " + prefix);
+        }
+        if (vocab == null) {
+            throw new IllegalArgumentException("WordPiece model requires vocab");
+        }
+        builder.vocab(Vocab.build(vocab, false));
+    }
+
+    /**
+     * TemplateProcessing: "single": [{"SpecialToken": {"id": "[CLS]"}}, {"Sequence": {"id": "A"}}, {"SpecialToken": ...}],
+     * "pair" 在其后追加 {"Sequence": {"id": "B"}}, {"SpecialToken": ...}.
+     * BertProcessing: "cls": ["[CLS]", 101], "sep": ["[SEP]", 102]
+     */
+    private static void readPostProcessor(JsonReader reader, FullTokenizer.Builder builder) throws IOException {
+        if (reader.peek() == JsonReader.Token.NULL) {
+            reader.nextNull();
+            throw new IllegalArgumentException("unsupported post_processor: null");
+        }
+        String type = null;
+        List<String> single = null;
+        List<String> pair = null;
+        String cls = null;
+        String sep = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "type":
+                    type = reader.nextString();
+                    break;
+                case "single":
+                    single = readTemplate(reader);
+                    break;
+                case "pair":
+                    pair = readTemplate(reader);
+                    break;
+                case "cls":
+                    cls = readTokenAndId(reader);
+                    break;
+                case "sep":
+                    sep = readTokenAndId(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if ("TemplateProcessing".equals(type)) {
+            if (single == null || single.size() != 3 || !"$A".equals(single.get(1))) {
+                throw new IllegalArgumentException("unsupported single template: " + single);
+            }
+            cls = single.get(0);
+            sep = single.get(2);
+            List<String> expectedPair = new ArrayList<>(single);
+            expectedPair.add("$B");
+            expectedPair.add(sep);
+            if (pair != null && !pair.equals(expectedPair)) {
+                throw new IllegalArgumentException("unsupported pair template: " + pair);
+            }
+        } else if (!"BertProcessing".equals(type) || cls == null || sep == null) {
+            throw new IllegalArgumentException("unsupported post_processor: " + type);
+        }
+        builder.clsToken(cls).sepToken(sep);
+    }
+
+    /**
+     * 模板中的特殊标记输出标记本身, 序列输出 $A / $B
+     */
+    private static List<String> readTemplate(JsonReader reader) throws IOException {
+        List<String> template = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String piece = reader.nextName();
+                String id = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("id".equals(reader.nextName())) {
+                        id = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                template.add("Sequence".equals(piece) ? "$" + id : id);
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        return template;
+    }
+
+    private static String readTokenAndId(JsonReader reader) throws IOException {
+        reader.beginArray();
+        String token = reader.nextString();
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+        return token;
+    }
+
+    private static void readPadding(JsonReader reader, FullTokenizer.Builder builder) throws IOException {
+        if (reader.peek() == JsonReader.Token.NULL) {
+            reader.nextNull();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("pad_token".equals(reader.nextName())) {
+                builder.padToken(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static String readType(JsonReader reader) throws IOException {
+        String type = null;
+        if (reader.peek() == JsonReader.Token.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("type".equals(reader.nextName())) {
+                type = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return type;
+    }
+}
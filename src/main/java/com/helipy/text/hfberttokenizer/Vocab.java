@@ -0,0 +1,381 @@
+package com.helipy.text.hfberttokenizer;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 词表: id 到 token 的字符表, token 到 id 的开放寻址哈希表, 以及 wordPiece 前缀树.
+ * <p>
+ * 可以从 vocab.txt 加载到堆内, 也可以用 VocabCompiler 预先编译成二进制文件, 通过 open() 内存映射后直接查询,
+ * 不反序列化成 java 对象. 同一台机器上的多个进程共享操作系统的页缓存, 启动时只需映射文件.
+ * <p>
+ * 二进制格式(小端序), 依次为:
+ * int MAGIC, int VERSION, int size, int charCount,
+ * int[size + 1] tokenOffsets, char[charCount] tokenChars(补齐到 4 字节),
+ * int capacity, int[capacity] slots, 前缀树(见 WordPieceTrie).
+ * <p>
+ * 线程安全: 构造完成后只读.
+ *
+ * @author wangchuangfeng
+ */
+public final class Vocab {
+    static final int MAGIC = 0x42505756;
+    static final int VERSION = 2;
+    private static final int HEADER_BYTES = 16;
+
+    private final int size;
+    /**
+     * 第 id 个 token 在 tokenChars 中的区间为 [tokenOffsets[id], tokenOffsets[id + 1])
+     */
+    private final IntBuffer tokenOffsets;
+    private final CharBuffer tokenChars;
+    /**
+     * 堆内词表缓存 id 到 token 字符串, 内存映射的词表为 null, 按需从 tokenChars 生成
+     */
+    private final String[] tokens;
+    /**
+     * token 到 id 的开放寻址(线性探测)哈希表, 槽位存放 id, 空槽为 WordPieceTrie.NONE. 容量为 2 的幂, 负载因子不超过 0.5
+     */
+    private final IntBuffer slots;
+    private final int mask;
+    private final WordPieceTrie trie;
+    /**
+     * 单字符 token 的 id, 下标为字符, 没有时为 WordPieceTrie.NONE. 中文词表的 token 大多是单个汉字, 查表即可, 不必查哈希表或前缀树
+     */
+    private final int[] charIds;
+    /**
+     * 辅助平面的单字符 token(surrogate pair), 码点到 id
+     */
+    private final Map<Integer, Integer> supplementaryCharIds;
+
+    private Vocab(int size, IntBuffer tokenOffsets, CharBuffer tokenChars, String[] tokens, IntBuffer slots,
+                  WordPieceTrie trie) {
+        this.size = size;
+        this.tokenOffsets = tokenOffsets;
+        this.tokenChars = tokenChars;
+        this.tokens = tokens;
+        this.slots = slots;
+        this.mask = slots.limit() - 1;
+        this.trie = trie;
+
+        this.charIds = new int[Character.MAX_VALUE + 1];
+        Arrays.fill(charIds, WordPieceTrie.NONE);
+        this.supplementaryCharIds = new HashMap<>();
+        for (int id = 0; id < size; id++) {
+            int offset = tokenOffsets.get(id);
+            int length = tokenOffsets.get(id + 1) - offset;
+            if (length == 1) {
+                charIds[tokenChars.get(offset)] = getId(tokenChars, offset, offset + 1);
+            } else if (length == 2 && Character.isSurrogatePair(tokenChars.get(offset), tokenChars.get(offset + 1))) {
+                supplementaryCharIds.put(Character.toCodePoint(tokenChars.get(offset), tokenChars.get(offset + 1)),
+                        getId(tokenChars, offset, offset + 2));
+            }
+        }
+    }
+
+    /**
+     * 从 vocab.txt 加载, 每行一个 token, 行号即 id
+     */
+    public static Vocab load(String filePath) {
+        return load(filePath, false);
+    }
+
+    /**
+     * @param failureLinks 是否预计算 LinMaxMatch 用的失败链接
+     */
+    public static Vocab load(String filePath, boolean failureLinks) {
+        try (FileInputStream fileInputStream = new FileInputStream(filePath)) {
+            try (InputStreamReader inputStreamReader =
+                         new InputStreamReader(fileInputStream, StandardCharsets.UTF_8)) {
+                return load(inputStreamReader, failureLinks);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("read bert vocab error!", e);
+        }
+    }
+
+    public static Vocab load(Reader reader, boolean failureLinks) {
+        List<String> tokens = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(reader)) {
+            String token;
+            while ((token = br.readLine()) != null) {
+                tokens.add(token);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("read bert vocab error!", e);
+        }
+        return build(tokens, failureLinks);
+    }
+
+    /**
+     * 下标即 id. 重复的 token 查询时返回最后一个 id
+     */
+    public static Vocab build(List<String> tokens, boolean failureLinks) {
+        Map<String, Integer> vocab = new LinkedHashMap<>(tokens.size() * 2);
+        for (int i = 0; i < tokens.size(); i++) {
+            vocab.put(tokens.get(i), i);
+        }
+        return build(tokens.toArray(new String[0]), vocab, failureLinks);
+    }
+
+    /**
+     * 由 token 到 id 的映射构建, id 不连续时空缺的 id 对应空字符串
+     */
+    public static Vocab build(Map<String, Integer> vocab, boolean failureLinks) {
+        int maxId = -1;
+        for (Integer id : vocab.values()) {
+            maxId = Math.max(maxId, id);
+        }
+        String[] tokens = new String[maxId + 1];
+        for (Map.Entry<String, Integer> entry : vocab.entrySet()) {
+            tokens[entry.getValue()] = entry.getKey();
+        }
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i] == null) {
+                tokens[i] = "";
+            }
+        }
+        return build(tokens, vocab, failureLinks);
+    }
+
+    private static Vocab build(String[] tokens, Map<String, Integer> vocab, boolean failureLinks) {
+        int[] offsets = new int[tokens.length + 1];
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < tokens.length; i++) {
+            offsets[i] = chars.length();
+            chars.append(tokens[i]);
+        }
+        offsets[tokens.length] = chars.length();
+        char[] tokenChars = new char[chars.length()];
+        chars.getChars(0, tokenChars.length, tokenChars, 0);
+
+        int capacity = Integer.highestOneBit(Math.max(vocab.size(), 1) * 2 - 1) << 1;
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, WordPieceTrie.NONE);
+        for (Map.Entry<String, Integer> entry : vocab.entrySet()) {
+            String token = entry.getKey();
+            int slot = hash("", token, 0, token.length()) & (capacity - 1);
+            while (slots[slot] != WordPieceTrie.NONE) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            slots[slot] = entry.getValue();
+        }
+        return new Vocab(tokens.length, IntBuffer.wrap(offsets), CharBuffer.wrap(tokenChars), tokens,
+                IntBuffer.wrap(slots), WordPieceTrie.build(vocab, failureLinks));
+    }
+
+    /**
+     * 内存映射 VocabCompiler 编译的二进制词表文件
+     */
+    public static Vocab open(String filePath) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new RuntimeException("read bert vocab error!", e);
+        }
+    }
+
+    /**
+     * 从二进制格式读取, 返回的词表直接引用 buffer 中的数据, 不复制
+     */
+    public static Vocab read(ByteBuffer buffer) {
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("not a compiled bert vocab");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported compiled bert vocab version: " + version);
+        }
+        int size = in.getInt();
+        int charCount = in.getInt();
+        IntBuffer tokenOffsets = WordPieceTrie.slice(in, (size + 1) * 4).asIntBuffer();
+        CharBuffer tokenChars = WordPieceTrie.slice(in, WordPieceTrie.align(charCount * 2)).asCharBuffer();
+        tokenChars.limit(charCount);
+        int capacity = in.getInt();
+        IntBuffer slots = WordPieceTrie.slice(in, capacity * 4).asIntBuffer();
+        return new Vocab(size, tokenOffsets, tokenChars, null, slots, WordPieceTrie.read(in));
+    }
+
+    /**
+     * 写成二进制格式, 可用 open() 内存映射加载
+     */
+    public void save(String filePath) {
+        ByteBuffer out = ByteBuffer.allocate(byteSize()).order(ByteOrder.LITTLE_ENDIAN);
+        write(out);
+        out.flip();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("write bert vocab error!", e);
+        }
+    }
+
+    int byteSize() {
+        return HEADER_BYTES + (size + 1) * 4 + WordPieceTrie.align(tokenChars.limit() * 2) + 4 + slots.limit() * 4
+                + trie.byteSize();
+    }
+
+    void write(ByteBuffer out) {
+        int charCount = tokenChars.limit();
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(size);
+        out.putInt(charCount);
+        WordPieceTrie.putInts(out, tokenOffsets);
+        for (int i = 0; i < charCount; i++) {
+            out.putChar(tokenChars.get(i));
+        }
+        if ((charCount & 1) != 0) {
+            out.putChar((char) 0);
+        }
+        out.putInt(slots.limit());
+        WordPieceTrie.putInts(out, slots);
+        trie.write(out);
+    }
+
+    /**
+     * token 数量, id 的取值范围为 [0, size)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return token 的 id, 不在词表中时返回 WordPieceTrie.NONE
+     */
+    public int getId(CharSequence token) {
+        return getId(token, 0, token.length());
+    }
+
+    /**
+     * 查询 text 的 [start, end) 区间, 不生成子串
+     *
+     * @return id, 不在词表中时返回 WordPieceTrie.NONE
+     */
+    public int getId(CharSequence text, int start, int end) {
+        return getId(text, start, end, false);
+    }
+
+    /**
+     * 查询 text 的 [start, end) 区间, 不生成子串
+     *
+     * @param continuation 为 true 时查询 "##" + 区间, 即词中的 wordPiece, 不拼接字符串
+     * @return id, 不在词表中时返回 WordPieceTrie.NONE
+     */
+    public int getId(CharSequence text, int start, int end, boolean continuation) {
+        String prefix = continuation ? WordPieceTrie.CONTINUATION_PREFIX : "";
+        int slot = hash(prefix, text, start, end) & mask;
+        int id;
+        while ((id = slots.get(slot)) != WordPieceTrie.NONE) {
+            if (tokenEquals(id, prefix, text, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return WordPieceTrie.NONE;
+    }
+
+    /**
+     * 单字符 token 的 id, 一次数组读取
+     *
+     * @return id, 不在词表中时返回 WordPieceTrie.NONE
+     */
+    public int getCharId(char c) {
+        return charIds[c];
+    }
+
+    /**
+     * 单个码点组成的 token 的 id, 辅助平面字符即 surrogate pair 组成的 token
+     *
+     * @return id, 不在词表中时返回 WordPieceTrie.NONE
+     */
+    public int getCodePointId(int codePoint) {
+        if (codePoint <= Character.MAX_VALUE) {
+            return charIds[codePoint];
+        }
+        Integer id = supplementaryCharIds.get(codePoint);
+        return id == null ? WordPieceTrie.NONE : id;
+    }
+
+    private boolean tokenEquals(int id, String prefix, CharSequence text, int start, int end) {
+        int offset = tokenOffsets.get(id);
+        if (tokenOffsets.get(id + 1) - offset != prefix.length() + end - start) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (tokenChars.get(offset++) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        for (int i = start; i < end; i++) {
+            if (tokenChars.get(offset++) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * prefix + text[start, end) 的哈希: 与 String.hashCode() 相同的多项式哈希, 再混合高位, 使低位分布均匀.
+     * 写入编译文件, 不能修改
+     */
+    private static int hash(String prefix, CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            h = 31 * h + prefix.charAt(i);
+        }
+        for (int i = start; i < end; i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return id 对应的 token, id 越界时返回 null
+     */
+    public String getToken(int id) {
+        if (id < 0 || id >= size) {
+            return null;
+        }
+        if (tokens != null) {
+            return tokens[id];
+        }
+        return tokenChars.subSequence(tokenOffsets.get(id), tokenOffsets.get(id + 1)).toString();
+    }
+
+    /**
+     * id 对应 token 的长度, 不生成字符串. id 越界时返回 -1
+     */
+    public int getTokenLength(int id) {
+        if (id < 0 || id >= size) {
+            return -1;
+        }
+        return tokenOffsets.get(id + 1) - tokenOffsets.get(id);
+    }
+
+    public WordPieceTrie getTrie() {
+        return trie;
+    }
+}
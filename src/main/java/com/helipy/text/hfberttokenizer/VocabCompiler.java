@@ -0,0 +1,27 @@
+package com.helipy.text.hfberttokenizer;
+
+/**
+ * 将 vocab.txt 编译为二进制词表, 供 Vocab.open() 内存映射加载. 只需在词表变化时执行一次:
+ * java -cp hf-bert-tokenizer.jar com.helipy.text.hfberttokenizer.VocabCompiler vocab.txt vocab.bin
+ * <p>
+ * 编译结果包含 LinMaxMatch 用的失败链接.
+ *
+ * @author wangchuangfeng
+ */
+public final class VocabCompiler {
+
+    private VocabCompiler() {
+    }
+
+    public static void compile(String vocabPath, String outputPath) {
+        Vocab.load(vocabPath, true).save(outputPath);
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("usage: VocabCompiler <vocab.txt> <output>");
+            System.exit(1);
+        }
+        compile(args[0], args[1]);
+    }
+}
@@ -1,24 +1,71 @@
 package com.helipy.text.hfberttokenizer;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 /**
+ * 线程安全: 构造完成后只读, 可被多个线程并发调用.
+ *
  * @author wangchuangfeng
  */
 public class WordPieceTokenizer {
 
-    private Map<String, Integer> vocab;
+    private final WordPieceTrie trie;
+    /**
+     * id 到 token 的映射, 用于输出 token 字符串, 避免 substring 和拼接 "##"
+     */
+    private final Vocab vocab;
 
-    private String unkToken;
-    private int maxInputCharsPerWord;
+    /**
+     * unkToken 的 id
+     */
+    private final int unkTokenId;
+    private final int maxInputCharsPerWord;
+    /**
+     * 是否使用 LinMaxMatch 线性时间分词, 结果与贪心最长匹配一致
+     */
+    private final boolean linMaxMatch;
+    /**
+     * 词到 wordPiece id 序列的缓存, 未开启时为 null
+     */
+    private final Cache<String, int[]> cache;
 
     public WordPieceTokenizer(Map<String, Integer> vocab, int maxWordLen, String unkToken) {
+        this(vocab, maxWordLen, unkToken, false);
+    }
+
+    public WordPieceTokenizer(Map<String, Integer> vocab, int maxWordLen, String unkToken, boolean linMaxMatch) {
+        this(Vocab.build(vocab, linMaxMatch), maxWordLen, unkToken, linMaxMatch);
+    }
+
+    /**
+     * @param linMaxMatch 为 true 时 vocab 需要包含失败链接, 见 Vocab.load(String, boolean) 和 VocabCompiler
+     */
+    public WordPieceTokenizer(Vocab vocab, int maxWordLen, String unkToken, boolean linMaxMatch) {
+        this(vocab, maxWordLen, unkToken, linMaxMatch, 0);
+    }
+
+    /**
+     * @param cacheSize 词切分结果缓存的最大词数, 0 表示不缓存. 缓存线程安全, 按近似 LRU 淘汰, 不影响切分结果
+     */
+    public WordPieceTokenizer(Vocab vocab, int maxWordLen, String unkToken, boolean linMaxMatch, long cacheSize) {
+        if (linMaxMatch && !vocab.getTrie().hasFailureLinks()) {
+            throw new IllegalArgumentException("linMaxMatch requires a vocab built with failure links");
+        }
         this.vocab = vocab;
-        this.unkToken = unkToken;
+        this.trie = vocab.getTrie();
+        this.unkTokenId = vocab.getId(unkToken);
+        if (unkTokenId == WordPieceTrie.NONE) {
+            throw new IllegalArgumentException("unk token not in vocab: " + unkToken);
+        }
         this.maxInputCharsPerWord = maxWordLen;
+        this.linMaxMatch = linMaxMatch;
+        this.cache = cacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(cacheSize).recordStats().build() : null;
     }
 
     /**
@@ -27,63 +74,178 @@ public class WordPieceTokenizer {
      * output = ["un", "##aff", "##able"]
      */
     public List<String> tokenize(String text) {
+        IntList ids = new IntList();
+        tokenizeToIds(text, ids);
+        List<String> outputTokens = new ArrayList<String>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            outputTokens.add(vocab.getToken(ids.get(i)));
+        }
+        return outputTokens;
+    }
 
-        List<String> tokens = whiteSpaceTokenize(text);
+    /**
+     * 与 tokenize() 相同的切分, 直接输出词表 id, 不生成中间 token 字符串.
+     * 无法切分的词输出 unkToken 的 id
+     *
+     * @param output 结果追加到该列表
+     */
+    public void tokenizeToIds(String text, IntList output) {
+        if (null == text) {
+            return;
+        }
 
-        List<String> outputTokens = new ArrayList<String>();
-        for (String token : tokens) {
-            int length = token.length();
-            if (length > this.maxInputCharsPerWord) {
-                outputTokens.add(this.unkToken);
-                continue;
+        // 等价于 trim() 后按 \s 切分
+        int begin = 0;
+        int end = text.length();
+        while (begin < end && text.charAt(begin) <= ' ') {
+            begin++;
+        }
+        while (begin < end && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int wordStart = begin;
+        for (int i = begin; i <= end; i++) {
+            if (i == end || isSpace(text.charAt(i))) {
+                if (wordStart < i) {
+                    tokenizeWordToIds(text, wordStart, i, output);
+                }
+                wordStart = i + 1;
             }
+        }
+    }
 
-            boolean isBad = false;
-            int start = 0;
-            List<String> subTokens = new ArrayList<>();
-
-            while (start < length) {
-                int end = length;
-                String curSubStr = null;
-                while (start < end) {
-                    String subStr = token.substring(start, end);
-                    if (start > 0) {
-                        subStr = "##" + subStr;
-                    }
-                    if (vocab.containsKey(subStr)) {
-                        curSubStr = subStr;
-                        break;
-                    }
-                    end -= 1;
-                }
-                if (null == curSubStr) {
-                    isBad = true;
+    /**
+     * 对一个不含空白的词做 wordPiece 切分, 输出词表 id
+     */
+    public void tokenizeWordToIds(CharSequence text, int wordStart, int wordEnd, IntList output) {
+        // 中文字符切分后都是单字符词, 直接查字符表. 单字符词的 wordPiece 切分结果只能是该字符本身或 unkToken
+        int length = wordEnd - wordStart;
+        if (length == 1 && maxInputCharsPerWord >= 1) {
+            int id = vocab.getCharId(text.charAt(wordStart));
+            output.add(id == WordPieceTrie.NONE ? unkTokenId : id);
+            return;
+        }
+        if (length == 2 && maxInputCharsPerWord >= 2
+                && Character.isSurrogatePair(text.charAt(wordStart), text.charAt(wordStart + 1))) {
+            int id = vocab.getCodePointId(Character.toCodePoint(text.charAt(wordStart), text.charAt(wordStart + 1)));
+            if (id != WordPieceTrie.NONE) {
+                output.add(id);
+                return;
+            }
+        }
+        // 单字符词在前缀树上只需查一次, 比查缓存更快, 不缓存; 超长的词直接输出 unkToken, 也不缓存
+        if (cache == null || wordEnd - wordStart < 2 || wordEnd - wordStart > maxInputCharsPerWord) {
+            splitWord(text, wordStart, wordEnd, output);
+            return;
+        }
+        String word = text.subSequence(wordStart, wordEnd).toString();
+        int[] ids = cache.getIfPresent(word);
+        if (ids == null) {
+            int outputSize = output.size();
+            splitWord(text, wordStart, wordEnd, output);
+            cache.put(word, output.toArray(outputSize));
+        } else {
+            output.addAll(ids);
+        }
+    }
+
+    /**
+     * 缓存统计, 未开启缓存时各项均为 0
+     */
+    public CacheStats getCacheStats() {
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    private void splitWord(CharSequence text, int wordStart, int wordEnd, IntList output) {
+        if (linMaxMatch) {
+            tokenizeWordLinMaxMatch(text, wordStart, wordEnd, output);
+        } else {
+            tokenizeWord(text, wordStart, wordEnd, output);
+        }
+    }
+
+    /**
+     * 贪心最长匹配: 沿前缀树逐字符向下走, 记录最后一个词表节点, 下一轮从该节点的词尾重新开始.
+     * 越过最长匹配后走过的字符会在下一轮再次访问, 最坏为平方时间; 线性时间见 tokenizeWordLinMaxMatch
+     */
+    private void tokenizeWord(CharSequence text, int wordStart, int wordEnd, IntList output) {
+        if (wordEnd - wordStart > this.maxInputCharsPerWord) {
+            output.add(this.unkTokenId);
+            return;
+        }
+
+        int outputSize = output.size();
+        int start = wordStart;
+        while (start < wordEnd) {
+            int node = start == wordStart ? WordPieceTrie.ROOT : WordPieceTrie.CONTINUATION_ROOT;
+            int matchEnd = -1;
+            int matchId = WordPieceTrie.NONE;
+            for (int i = start; i < wordEnd; i++) {
+                node = trie.child(node, text.charAt(i));
+                if (node == WordPieceTrie.NONE) {
                     break;
                 }
-                subTokens.add(curSubStr);
-                start = end;
+                int id = trie.tokenId(node);
+                if (id != WordPieceTrie.NONE) {
+                    matchEnd = i + 1;
+                    matchId = id;
+                }
             }
-
-            if (isBad) {
-                outputTokens.add(unkToken);
-            } else {
-                outputTokens.addAll(subTokens);
+            if (matchEnd < 0) {
+                // 有无法匹配的片段, 整个词输出 unkToken
+                output.truncate(outputSize);
+                output.add(unkTokenId);
+                return;
             }
+            output.add(matchId);
+            start = matchEnd;
+        }
+    }
 
+    /**
+     * LinMaxMatch: 无法继续匹配时输出失败弹出的 token 并跳转到失败链接, 不回退输入位置.
+     * 每个字符只前进一次, 失败链接跳转次数不超过输出 token 数, 整体为线性时间
+     */
+    private void tokenizeWordLinMaxMatch(CharSequence text, int wordStart, int wordEnd, IntList output) {
+        if (wordEnd - wordStart > this.maxInputCharsPerWord) {
+            output.add(this.unkTokenId);
+            return;
+        }
+
+        int outputSize = output.size();
+        int node = WordPieceTrie.ROOT;
+        int i = wordStart;
+        while (i < wordEnd) {
+            int next = trie.child(node, text.charAt(i));
+            if (next != WordPieceTrie.NONE) {
+                node = next;
+                i++;
+                continue;
+            }
+            if (trie.failureLink(node) == WordPieceTrie.NONE) {
+                break;
+            }
+            node = popFailure(node, output);
+        }
+        // 词尾: 沿失败链接输出剩余 token, 直到回到 CONTINUATION_ROOT
+        while (i == wordEnd && node != WordPieceTrie.CONTINUATION_ROOT && trie.failureLink(node) != WordPieceTrie.NONE) {
+            node = popFailure(node, output);
+        }
+        if (i < wordEnd || node != WordPieceTrie.CONTINUATION_ROOT) {
+            output.truncate(outputSize);
+            output.add(unkTokenId);
         }
-        return outputTokens;
     }
 
-    private List<String> whiteSpaceTokenize(String text) {
-        List<String> result = new ArrayList<>();
-        if (null == text) {
-            return result;
+    private int popFailure(int node, IntList output) {
+        for (int k = trie.failurePopStart(node); k < trie.failurePopEnd(node); k++) {
+            output.add(trie.failurePop(k));
         }
-        text = text.trim();
-        String[] tokens = text.split("\\s");
-        result = Arrays.asList(tokens);
+        return trie.failureLink(node);
+    }
 
-        return result;
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,322 @@
+package com.helipy.text.hfberttokenizer;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * wordPiece 词表前缀树.
+ * 两个根节点: ROOT 存放所有词表项(词首匹配), CONTINUATION_ROOT 存放 "##" 开头的词表项去掉 "##" 后的部分(词中匹配).
+ * <p>
+ * 节点按层序编号, 同一节点的子节点编号连续且按字符升序排列, 查子节点只需在 labels 上做二分查找.
+ * <p>
+ * 可选地预计算失败链接(failure link)和失败弹出(failure pops), 用于线性时间的 LinMaxMatch 分词,
+ * 见 Fast WordPiece Tokenization: https://arxiv.org/abs/2012.15524
+ * <p>
+ * 各数组保存在 CharBuffer/IntBuffer 中, 可以是堆内数组, 也可以是 Vocab 编译文件内存映射后的视图.
+ *
+ * @author wangchuangfeng
+ */
+public final class WordPieceTrie {
+    public static final int ROOT = 0;
+    public static final int CONTINUATION_ROOT = 1;
+    public static final int NONE = -1;
+
+    static final String CONTINUATION_PREFIX = "##";
+
+    /**
+     * 进入该节点的边上的字符
+     */
+    private final CharBuffer labels;
+    /**
+     * 第一个子节点的编号, 子节点区间为 [firstChild[node], firstChild[node + 1])
+     */
+    private final IntBuffer firstChild;
+    /**
+     * 节点对应的词表 id, 非词表项为 NONE
+     */
+    private final IntBuffer tokenIds;
+    /**
+     * 失败链接: 当前节点无法继续匹配时跳转到的节点, 没有时为 NONE. 未构建时为 null
+     */
+    private IntBuffer failureLinks;
+    /**
+     * 失败弹出: 跳转失败链接时要输出的 token id, 区间为 failurePops[failurePopStart[node], failurePopStart[node + 1])
+     */
+    private IntBuffer failurePopStart;
+    private IntBuffer failurePops;
+
+    private WordPieceTrie(CharBuffer labels, IntBuffer firstChild, IntBuffer tokenIds) {
+        this.labels = labels;
+        this.firstChild = firstChild;
+        this.tokenIds = tokenIds;
+    }
+
+    public static WordPieceTrie build(Map<String, Integer> vocab) {
+        return build(vocab, false);
+    }
+
+    /**
+     * @param failureLinks 是否预计算 LinMaxMatch 用的失败链接
+     */
+    public static WordPieceTrie build(Map<String, Integer> vocab, boolean failureLinks) {
+        BuildNode root = new BuildNode();
+        BuildNode continuationRoot = new BuildNode();
+        for (Map.Entry<String, Integer> entry : vocab.entrySet()) {
+            String token = entry.getKey();
+            int id = entry.getValue();
+            root.insert(token, 0, id);
+            if (token.length() > CONTINUATION_PREFIX.length() && token.startsWith(CONTINUATION_PREFIX)) {
+                continuationRoot.insert(token, CONTINUATION_PREFIX.length(), id);
+            }
+        }
+
+        // 层序遍历, 保证同一节点的子节点编号连续
+        List<BuildNode> order = new ArrayList<>();
+        order.add(root);
+        order.add(continuationRoot);
+        List<Character> edgeLabels = new ArrayList<>();
+        edgeLabels.add((char) 0);
+        edgeLabels.add((char) 0);
+        int[] first = new int[16];
+        for (int i = 0; i < order.size(); i++) {
+            BuildNode node = order.get(i);
+            if (i + 1 >= first.length) {
+                first = Arrays.copyOf(first, first.length * 2);
+            }
+            first[i] = order.size();
+            for (Map.Entry<Character, BuildNode> child : node.children.entrySet()) {
+                order.add(child.getValue());
+                edgeLabels.add(child.getKey());
+            }
+            first[i + 1] = order.size();
+        }
+
+        int size = order.size();
+        char[] labels = new char[size];
+        int[] tokenIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            labels[i] = edgeLabels.get(i);
+            tokenIds[i] = order.get(i).tokenId;
+        }
+        WordPieceTrie trie = new WordPieceTrie(CharBuffer.wrap(labels), IntBuffer.wrap(Arrays.copyOf(first, size + 1)),
+                IntBuffer.wrap(tokenIds));
+        if (failureLinks) {
+            trie.buildFailureLinks();
+        }
+        return trie;
+    }
+
+    /**
+     * 按层序计算失败链接, 失败链接指向的节点深度更小, 一定先于当前节点计算完成.
+     * 对节点 v = child(u, c):
+     * v 是词表项时, 失败链接为 CONTINUATION_ROOT, 失败弹出为 [v];
+     * 否则沿 u 的失败链接找到第一个有 c 子节点的 z, 失败链接为 child(z, c), 失败弹出为 u 的失败弹出加上沿途各节点的失败弹出.
+     */
+    private void buildFailureLinks() {
+        int size = size();
+        int[] links = new int[size];
+        int[][] pops = new int[size][];
+        links[ROOT] = NONE;
+        links[CONTINUATION_ROOT] = NONE;
+        pops[ROOT] = new int[0];
+        pops[CONTINUATION_ROOT] = new int[0];
+        int totalPops = 0;
+        for (int u = 0; u < size; u++) {
+            for (int v = firstChild.get(u); v < firstChild.get(u + 1); v++) {
+                if (tokenIds.get(v) != NONE) {
+                    links[v] = CONTINUATION_ROOT;
+                    pops[v] = new int[]{tokenIds.get(v)};
+                } else {
+                    char c = labels.get(v);
+                    int z = links[u];
+                    int[] popped = pops[u];
+                    int target = NONE;
+                    while (z != NONE) {
+                        target = child(z, c);
+                        if (target != NONE) {
+                            break;
+                        }
+                        popped = concat(popped, pops[z]);
+                        z = links[z];
+                    }
+                    links[v] = target;
+                    pops[v] = target == NONE ? new int[0] : popped;
+                }
+                totalPops += pops[v].length;
+            }
+        }
+
+        int[] popStart = new int[size + 1];
+        int[] popPool = new int[totalPops];
+        int offset = 0;
+        for (int node = 0; node < size; node++) {
+            popStart[node] = offset;
+            System.arraycopy(pops[node], 0, popPool, offset, pops[node].length);
+            offset += pops[node].length;
+        }
+        popStart[size] = offset;
+
+        this.failureLinks = IntBuffer.wrap(links);
+        this.failurePopStart = IntBuffer.wrap(popStart);
+        this.failurePops = IntBuffer.wrap(popPool);
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        if (b.length == 0) {
+            return a;
+        }
+        int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /**
+     * 查找子节点
+     *
+     * @return 子节点编号, 不存在时返回 NONE
+     */
+    public int child(int node, char c) {
+        int low = firstChild.get(node);
+        int high = firstChild.get(node + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = labels.get(mid);
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * 节点对应的词表 id, 非词表项返回 NONE
+     */
+    public int tokenId(int node) {
+        return tokenIds.get(node);
+    }
+
+    public boolean hasFailureLinks() {
+        return failureLinks != null;
+    }
+
+    /**
+     * 失败链接, 没有时返回 NONE
+     */
+    public int failureLink(int node) {
+        return failureLinks.get(node);
+    }
+
+    public int failurePopStart(int node) {
+        return failurePopStart.get(node);
+    }
+
+    public int failurePopEnd(int node) {
+        return failurePopStart.get(node + 1);
+    }
+
+    public int failurePop(int index) {
+        return failurePops.get(index);
+    }
+
+    public int size() {
+        return tokenIds.limit();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 二进制格式, 由 Vocab 读写. 依次为:
+    // int nodeCount, int popCount(未构建失败链接时为 -1),
+    // char[nodeCount] labels(补齐到 4 字节), int[nodeCount + 1] firstChild, int[nodeCount] tokenIds,
+    // 有失败链接时: int[nodeCount] failureLinks, int[nodeCount + 1] failurePopStart, int[popCount] failurePops
+
+    /**
+     * 写入 write() 所需的字节数
+     */
+    int byteSize() {
+        int size = size();
+        int bytes = 8 + align(size * 2) + (size + 1) * 4 + size * 4;
+        if (hasFailureLinks()) {
+            bytes += size * 4 + (size + 1) * 4 + failurePops.limit() * 4;
+        }
+        return bytes;
+    }
+
+    void write(ByteBuffer out) {
+        int size = size();
+        out.putInt(size);
+        out.putInt(hasFailureLinks() ? failurePops.limit() : -1);
+        for (int i = 0; i < size; i++) {
+            out.putChar(labels.get(i));
+        }
+        if ((size & 1) != 0) {
+            out.putChar((char) 0);
+        }
+        putInts(out, firstChild);
+        putInts(out, tokenIds);
+        if (hasFailureLinks()) {
+            putInts(out, failureLinks);
+            putInts(out, failurePopStart);
+            putInts(out, failurePops);
+        }
+    }
+
+    /**
+     * 从 in 的当前位置读取, 返回的前缀树直接引用 in 中的数据, 不复制. 读取后 in 的位置移到数据末尾
+     */
+    static WordPieceTrie read(ByteBuffer in) {
+        int size = in.getInt();
+        int popCount = in.getInt();
+        CharBuffer labels = slice(in, align(size * 2)).asCharBuffer();
+        labels.limit(size);
+        WordPieceTrie trie = new WordPieceTrie(labels, slice(in, (size + 1) * 4).asIntBuffer(),
+                slice(in, size * 4).asIntBuffer());
+        if (popCount >= 0) {
+            trie.failureLinks = slice(in, size * 4).asIntBuffer();
+            trie.failurePopStart = slice(in, (size + 1) * 4).asIntBuffer();
+            trie.failurePops = slice(in, popCount * 4).asIntBuffer();
+        }
+        return trie;
+    }
+
+    static int align(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+
+    /**
+     * 从 in 的当前位置切出 length 字节, 保持字节序, 并将 in 的位置后移
+     */
+    static ByteBuffer slice(ByteBuffer in, int length) {
+        ByteBuffer view = in.duplicate();
+        view.limit(in.position() + length);
+        in.position(in.position() + length);
+        return view.slice().order(in.order());
+    }
+
+    static void putInts(ByteBuffer out, IntBuffer values) {
+        for (int i = 0; i < values.limit(); i++) {
+            out.putInt(values.get(i));
+        }
+    }
+
+    private static final class BuildNode {
+        private final TreeMap<Character, BuildNode> children = new TreeMap<>();
+        private int tokenId = NONE;
+
+        private void insert(String token, int from, int id) {
+            BuildNode node = this;
+            for (int i = from; i < token.length(); i++) {
+                node = node.children.computeIfAbsent(token.charAt(i), c -> new BuildNode());
+            }
+            node.tokenId = id;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.helipy.text.hfberttokenizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Pack:       com.helipy.text.hfberttokenizer
+ * File:       BasicTokenizerTest
+ * Desc:
+ *
+ * @author wangchuangfeng
+ */
+class BasicTokenizerTest {
+
+    @Test
+    void tokenize() {
+        BasicTokenizer basicTokenizer = new BasicTokenizer();
+        Set<String> neverSplit = Collections.singleton("[MASK]");
+
+        assertEquals(Arrays.asList("hello", ",", "world", "!"), basicTokenizer.tokenize("Hello, World!", neverSplit));
+        assertEquals(Arrays.asList("要", "求", "：", "有", "责", "任", "心", "、", "爱", "心", "💗", "、", "耐", "心"),
+                basicTokenizer.tokenize("要求：有责任心、爱心💗、耐心", neverSplit));
+        assertEquals(Arrays.asList("cafe", "naive", "angstrom"), basicTokenizer.tokenize("Café Naïve ÅNGSTRÖM", neverSplit));
+        assertEquals(Arrays.asList("[MASK]", "a", ".", "b"), basicTokenizer.tokenize("[MASK] a.b", neverSplit));
+        // 控制字符直接删除, 不切分; 各种空白都切分
+        assertEquals(Arrays.asList("abcd", "e", "f"), basicTokenizer.tokenize("ab\u0001cd e　f", neverSplit));
+        // 按词转小写, 词尾的 Σ 转为 ς
+        assertEquals(Arrays.asList("σοφος", "ας", "."), basicTokenizer.tokenize("ΣΟΦΟΣ ΑΣ.", neverSplit));
+    }
+
+    @Test
+    void tokenizeKeepCase() {
+        BasicTokenizer basicTokenizer = new BasicTokenizer(false, new HashSet<>(), false, false);
+
+        assertEquals(Arrays.asList("要求", "：", "有责任心", "、", "爱心💗", "、", "耐心"),
+                basicTokenizer.tokenize("要求：有责任心、爱心💗、耐心", null));
+        assertEquals(Arrays.asList("Café", "Naïve", "ÅNGSTRÖM"), basicTokenizer.tokenize("Café Naïve ÅNGSTRÖM", null));
+    }
+
+    @Test
+    void tokenizeHfCompatible() {
+        BasicTokenizer legacy = new BasicTokenizer(false, new HashSet<>(), true, false);
+        BasicTokenizer hf = new BasicTokenizer(false, new HashSet<>(), true, false, false, true);
+
+        // 辅助平面的中日韩统一表意文字扩展 B, 以及兼容表意文字 U+F900
+        String text = "\uD840\uDC00\uD840\uDC01abc\uF900";
+        assertEquals(Arrays.asList(text), legacy.tokenize(text, null));
+        assertEquals(Arrays.asList("\uD840\uDC00", "\uD840\uDC01", "abc", "\uF900"), hf.tokenize(text, null));
+        // 辅助平面的标点 U+10100 切分, 格式字符 U+E0001 删除
+        assertEquals(Arrays.asList("a", "\uD800\uDD00", "b"), hf.tokenize("a\uD800\uDD00b", null));
+        assertEquals(Arrays.asList("ab"), hf.tokenize("a\uDB40\uDC01b", null));
+        // 辅助平面的音调字符 U+101FD 去除
+        BasicTokenizer hfLower = new BasicTokenizer(true, new HashSet<>(), true, null, false, true);
+        assertEquals(Arrays.asList("ab"), hfLower.tokenize("A\uD800\uDDFDB", null));
+    }
+
+    @Test
+    void tokenizeRange() {
+        BasicTokenizer basicTokenizer = new BasicTokenizer();
+        String text = "[CLS]Hello, 美甲![SEP]";
+
+        // 区间接口与 List 接口结果一致
+        List<String> tokens = new ArrayList<>();
+        basicTokenizer.tokenize(text, 5, text.length() - 5, null,
+                (buffer, start, end) -> tokens.add(buffer.subSequence(start, end).toString()));
+        assertEquals(basicTokenizer.tokenize(text.substring(5, text.length() - 5), null), tokens);
+    }
+}
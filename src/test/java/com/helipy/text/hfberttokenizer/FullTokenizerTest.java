@@ -6,9 +6,22 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Pack:       com.helipy.text.hfberttokenizer
@@ -50,6 +63,202 @@ class FullTokenizerTest {
         System.out.println(tokenList);
     }
 
+    @Test
+    void full2Half() {
+        Preprocess preprocess = new Preprocess();
+        assertEquals("ABC 123!~", preprocess.full2HalfChange("ＡＢＣ　１２３！～"));
+        // 范围外的全角字符和 emoji 保持不变
+        assertEquals("￥｟\uD83D\uDC85", preprocess.full2HalfChange("￥｟\uD83D\uDC85"));
+
+        FullTokenizer tokenizer = new FullTokenizer("src/test/resources/bert/vocab.txt", true, true);
+        assertEquals(tokenizer.tokenize("abc, 123!"), tokenizer.tokenize("ＡＢＣ，　１２３！"));
+    }
+
+    @Test
+    void wordPieceCache() {
+        FullTokenizer cached = FullTokenizer.builder()
+                .vocab("src/test/resources/bert/vocab.txt")
+                .doLower(true)
+                .wordPieceCacheSize(1000)
+                .build();
+        String text = "unaffable StatefulSet 美甲 unaffable";
+        assertEquals(fullTokenizer.tokenize(text), cached.tokenize(text));
+        assertArrayEquals(fullTokenizer.tokenizeToIds(text), cached.tokenizeToIds(text));
+        assertTrue(cached.getWordPieceCacheStats().hitCount() > 0);
+        assertEquals(0, fullTokenizer.getWordPieceCacheStats().requestCount());
+    }
+
+    @Test
+    void textCache() {
+        FullTokenizer cached = FullTokenizer.builder()
+                .vocab("src/test/resources/bert/vocab.txt")
+                .doLower(true)
+                .textCacheMaxBytes(1 << 20)
+                .textCacheExpireAfterWrite(1, TimeUnit.MINUTES)
+                .build();
+        String query = "StatefulSet 美甲";
+        List<String> docs = Arrays.asList("unaffable 地址", "要求：有责任心、爱心、耐心");
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(fullTokenizer.encodeSingle(query, 8).getInputIds(), cached.encodeSingle(query, 8).getInputIds());
+            List<Encoding> expected = fullTokenizer.tokenizeMultiPairs(query, docs, 12);
+            List<Encoding> actual = cached.tokenizeMultiPairs(query, docs, 12);
+            for (int j = 0; j < docs.size(); j++) {
+                assertEquals(expected.get(j).getInputIds(), actual.get(j).getInputIds());
+                assertEquals(expected.get(j).getSegmentIds(), actual.get(j).getSegmentIds());
+            }
+        }
+        // 每个 (query, maxSeqLength) 组合各未命中一次
+        assertEquals(2, cached.getTextCacheStats().missCount());
+        assertEquals(2, cached.getTextCacheStats().hitCount());
+    }
+
+    @Test
+    void addTokens() {
+        fullTokenizer.loadAddedTokens("src/test/resources/bert/added_tokens.json");
+        fullTokenizer.loadSpecialTokensMap("src/test/resources/bert/special_tokens_map.json");
+        assertTrue(fullTokenizer.getAddedTokens().isEmpty());
+
+        // 已在词表中的沿用原 id, 新标记从词表大小开始分配
+        assertEquals(2, fullTokenizer.addTokens(Arrays.asList("[MASK]", "机器学习", "机器学习工程师")));
+        assertEquals(21128, fullTokenizer.encodeToken("机器学习"));
+        assertEquals(21129, fullTokenizer.encodeToken("机器学习工程师"));
+        assertEquals("机器学习工程师", fullTokenizer.decodeId(21129));
+
+        // 重叠时取最左最长的匹配
+        String text = "招聘机器学习工程师[MASK]懂机器学习";
+        assertEquals(Arrays.asList("招", "聘", "机器学习工程师", "[MASK]", "懂", "机器学习"), fullTokenizer.tokenize(text));
+        assertEquals(fullTokenizer.convertTokensToIds(fullTokenizer.tokenize(text)).toString(),
+                Arrays.toString(fullTokenizer.tokenizeToIds(text)));
+    }
+
+    @Test
+    void tokenizerJson() {
+        FullTokenizer tokenizer = FullTokenizer.fromTokenizerJson("src/test/resources/bert/tokenizer.json");
+        assertEquals("[CLS]", tokenizer.getClsToken());
+        assertEquals("[SEP]", tokenizer.getSepToken());
+        assertEquals("[UNK]", tokenizer.getUnkToken());
+
+        String query = "[CLS]要求：有责任心、爱心、耐心 message:StatefulSet milk[SEP]";
+        String doc = "美甲。地址: unaffable";
+        assertEquals(fullTokenizer.tokenize(query), tokenizer.tokenize(query));
+        assertArrayEquals(fullTokenizer.encodePair(query, doc, 32).getInputIds(),
+                tokenizer.encodePair(query, doc, 32).getInputIds());
+    }
+
+    @Test
+    void tokenizerJsonAddedTokens() throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get("src/test/resources/bert/tokenizer.json")), StandardCharsets.UTF_8);
+        String mask = "\"content\":\"[MASK]\",\"single_word\":false,\"lstrip\":false,\"rstrip\":false,\"normalized\":false}";
+        assertTrue(json.contains(mask));
+        String token = "{\"id\":21128,\"special\":false,\"content\":\"机器学习\","
+                + "\"single_word\":false,\"lstrip\":false,\"rstrip\":false,\"normalized\":false}";
+
+        // 不做归一化, 不吸收空白的标记在原文上匹配
+        FullTokenizer tokenizer = FullTokenizer.builder()
+                .tokenizerJson(new StringReader(json.replace(mask, mask + "," + token)))
+                .build();
+        assertEquals(Arrays.asList("招", "聘", "机器学习", "[MASK]"), tokenizer.tokenize("招聘机器学习[MASK]"));
+        assertEquals(21128, tokenizer.encodeToken("机器学习"));
+
+        // 在归一化后的文本上匹配, 吸收空白或要求整词的标记无法等价实现;
+        // 缺少 normalized 时 tokenizers 对非特殊标记默认为 true
+        List<String> unsupported = Arrays.asList(
+                token.replace("\"normalized\":false", "\"normalized\":true"),
+                token.replace("\"lstrip\":false", "\"lstrip\":true"),
+                token.replace("\"rstrip\":false", "\"rstrip\":true"),
+                token.replace("\"single_word\":false", "\"single_word\":true"),
+                token.replace(",\"normalized\":false", ""));
+        for (String added : unsupported) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> FullTokenizer.builder().tokenizerJson(new StringReader(json.replace(mask, mask + "," + added))));
+            assertTrue(e.getMessage().endsWith("机器学习"));
+        }
+    }
+
+    @Test
+    void offsets() {
+        String text = "[CLS]要求：Unaffable café ＡＢＣ";
+        IntList ids = new IntList();
+        IntList offsets = new IntList();
+        fullTokenizer.tokenizeToIds(text, ids, offsets);
+        assertArrayEquals(fullTokenizer.tokenizeToIds(text), ids.toArray());
+        List<String> spans = new ArrayList<>();
+        for (int k = 0; k < ids.size(); k++) {
+            spans.add(text.substring(offsets.get(2 * k), offsets.get(2 * k + 1)));
+        }
+        assertEquals(Arrays.asList("[CLS]", "要", "求", "：", "U", "na", "ff", "able", "café", "Ａ", "Ｂ", "Ｃ"), spans);
+
+        // 去掉组合字符和 NFD 分解在同一个词内长度抵消, 仍逐字符对齐
+        FullTokenizer tokenizer = new FullTokenizer("src/test/resources/bert/vocab.txt", false, false);
+        String word = "a\u0308，Ⅻ3.14뚸";
+        ids.clear();
+        offsets.clear();
+        tokenizer.tokenizeToIds(word, ids, offsets);
+        assertArrayEquals(new int[]{0, 1, 2, 3, 3, 5, 5, 6, 6, 9}, offsets.toArray());
+
+        IntEncoding encoding = fullTokenizer.encodePairWithOffsets("美甲", "地址", 8);
+        assertArrayEquals(fullTokenizer.encodePair("美甲", "地址", 8).getInputIds(), encoding.getInputIds());
+        assertArrayEquals(new int[]{0, 0, 1, 0, 0, 1, 0, 0}, encoding.getStartOffsets());
+        assertArrayEquals(new int[]{0, 1, 2, 0, 1, 2, 0, 0}, encoding.getEndOffsets());
+    }
+
+    @Test
+    void windows() {
+        // 14 个 token
+        String doc = "要求有责任心爱心耐心工作经验";
+        int[] ids = fullTokenizer.tokenizeToIds(doc);
+        List<IntEncoding> windows = fullTokenizer.encodeSingleWindows(doc, 8, 2);
+        // 每个窗口 6 个 token, 起点 0, 4, 8
+        assertEquals(3, windows.size());
+        assertArrayEquals(fullTokenizer.encodeSingle(doc, 8).getInputIds(), windows.get(0).getInputIds());
+        assertArrayEquals(fullTokenizer.encodeIdsSingle(Arrays.copyOfRange(ids, 8, 14), 8).getInputIds(),
+                windows.get(2).getInputIds());
+        assertTrue(windows.get(0).getInputIdsArray() == windows.get(2).getInputIdsArray());
+
+        // 句对每个窗口都包含完整的 query, doc 每个窗口 3 个 token, 起点 0, 2, ..., 12
+        int[] queryIds = fullTokenizer.tokenizeToIds("美甲");
+        List<IntEncoding> pairWindows = fullTokenizer.encodePairWindows("美甲", doc, 8, 1);
+        assertEquals(7, pairWindows.size());
+        assertArrayEquals(fullTokenizer.encodeIdsPair(queryIds, Arrays.copyOfRange(ids, 12, 14), 8).getInputIds(),
+                pairWindows.get(6).getInputIds());
+        assertArrayEquals(fullTokenizer.encodeIdsPair(queryIds, Arrays.copyOfRange(ids, 2, 5), 8).getSegmentIds(),
+                pairWindows.get(1).getSegmentIds());
+    }
+
+    @Test
+    void tokenizeToIdsLimit() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("要求有责任心 message:StatefulSet ΟΔΟΣ [SEP] ");
+        }
+        String text = sb.toString();
+        int[] ids = fullTokenizer.tokenizeToIds(text);
+        for (int limit : new int[]{0, 1, 7, 500, ids.length + 1}) {
+            IntList output = new IntList();
+            output.add(-1);
+            fullTokenizer.tokenizeToIds(text, output, limit);
+            int[] expected = new int[Math.min(limit, ids.length) + 1];
+            expected[0] = -1;
+            System.arraycopy(ids, 0, expected, 1, expected.length - 1);
+            assertArrayEquals(expected, output.toArray());
+        }
+        assertArrayEquals(fullTokenizer.encodeSingle(text, 128).getInputIds(),
+                fullTokenizer.encodeIdsSingle(ids, 128).getInputIds());
+
+        // 小写化按块进行: 块边界附近的大写字母, 跨中文字符的词尾 Σ 与特殊 token 的结果都应与先整体切分再截断一致
+        sb.setLength(0);
+        for (int i = 0; i < 200; i++) {
+            sb.append("中ΣΟΦΟΣ㐀Naïve[SEP]").append(i % 7 == 0 ? " [CLS] " : "").append("ΟΔΟΣ责StatefulSet");
+        }
+        text = sb.toString();
+        ids = fullTokenizer.tokenizeToIds(text);
+        for (int limit = 0; limit <= ids.length + 1; limit++) {
+            IntList output = new IntList();
+            fullTokenizer.tokenizeToIds(text, output, limit);
+            assertArrayEquals(Arrays.copyOf(ids, Math.min(limit, ids.length)), output.toArray());
+        }
+    }
+
     @Test
     void convertTokensToIds1() {
         // 一般文本
@@ -80,6 +289,16 @@ class FullTokenizerTest {
         System.out.println(idList);
     }
 
+    @Test
+    void tokenizeToIds() {
+        String text = "[CLS]要求：有责任心、爱心\uD83D\uDC97、耐心 message:StatefulSet milk[SEP]";
+
+        // 直接输出 id, 与先分词再转 id 结果一致
+        int[] ids = fullTokenizer.tokenizeToIds(text);
+        List<Integer> idList = fullTokenizer.convertTokensToIds(fullTokenizer.tokenize(text));
+        assertArrayEquals(idList.stream().mapToInt(Integer::intValue).toArray(), ids);
+    }
+
     @Test
     void convertIdsToTokens() {
         String text = "要求：有责任心、爱心\uD83D\uDC97、耐心，有教师资格证或\uD83C\uDE36️工作经验的优先入用\\n";
@@ -89,11 +308,32 @@ class FullTokenizerTest {
         List<String> tokenList = fullTokenizer.tokenize(text);
         System.out.println(tokenList);
 
-        // 得到三个向量输入
+        // 得到三个向量输入: 超长时保留前 maxSeqLength - 2 个 token, 末尾是 [SEP]
         Encoding encoding = fullTokenizer.getTokenIdsSingle(tokenList, 10);
-        System.out.println(encoding.getInputIds());
-        System.out.println(encoding.getInputMask());
-        System.out.println(encoding.getSegmentIds());
+        List<Integer> expected = new ArrayList<>();
+        expected.add(fullTokenizer.encodeToken("[CLS]"));
+        expected.addAll(fullTokenizer.convertTokensToIds(tokenList.subList(0, 8)));
+        expected.add(fullTokenizer.encodeToken("[SEP]"));
+        assertEquals(expected, encoding.getInputIds());
+        assertEquals(Collections.nCopies(10, 1), encoding.getInputMask());
+        assertEquals(Collections.nCopies(10, 0), encoding.getSegmentIds());
+
+        // 不足时 [SEP] 之后用 [PAD] 的 id 补齐到 maxSeqLength
+        List<String> shortTokens = Arrays.asList("美", "甲");
+        encoding = fullTokenizer.getTokenIdsSingle(shortTokens, 6);
+        int pad = fullTokenizer.encodeToken("[PAD]");
+        assertEquals(Arrays.asList(fullTokenizer.encodeToken("[CLS]"), fullTokenizer.encodeToken("美"),
+                fullTokenizer.encodeToken("甲"), fullTokenizer.encodeToken("[SEP]"), pad, pad), encoding.getInputIds());
+        assertEquals(Arrays.asList(1, 1, 1, 1, 0, 0), encoding.getInputMask());
+
+        // padding 取 padToken 的 id 而不是 0
+        FullTokenizer unusedPad = FullTokenizer.builder()
+                .vocab("src/test/resources/bert/vocab.txt")
+                .doLower(true)
+                .padToken("[unused1]")
+                .build();
+        assertEquals(1, unusedPad.encodeToken("[unused1]"));
+        assertEquals(Arrays.asList(1, 1), unusedPad.getTokenIdsSingle(shortTokens, 6).getInputIds().subList(4, 6));
     }
 
     @Test
@@ -111,8 +351,91 @@ class FullTokenizerTest {
 
         // 得到三个向量输入
         Encoding encoding = fullTokenizer.getTokenIdsPair(queryTokenList, docTokenList, 80);
-        System.out.println(encoding.getInputIds());
-        System.out.println(encoding.getInputMask());
-        System.out.println(encoding.getSegmentIds());
+        assertEquals(80, encoding.getInputIds().size());
+
+        // 超长时按 longest_first 裁剪: 可用 13 个位置, 两句都超过一半, query 保留 7 个, doc 保留 6 个
+        assertTrue(queryTokenList.size() > 7 && docTokenList.size() > 6);
+        encoding = fullTokenizer.getTokenIdsPair(queryTokenList, docTokenList, 16);
+        List<Integer> expected = new ArrayList<>();
+        expected.add(fullTokenizer.encodeToken("[CLS]"));
+        expected.addAll(fullTokenizer.convertTokensToIds(queryTokenList.subList(0, 7)));
+        expected.add(fullTokenizer.encodeToken("[SEP]"));
+        expected.addAll(fullTokenizer.convertTokensToIds(docTokenList.subList(0, 6)));
+        expected.add(fullTokenizer.encodeToken("[SEP]"));
+        assertEquals(expected, encoding.getInputIds());
+        assertEquals(Collections.nCopies(16, 1), encoding.getInputMask());
+        List<Integer> segmentIds = new ArrayList<>(Collections.nCopies(9, 0));
+        segmentIds.addAll(Collections.nCopies(7, 1));
+        assertEquals(segmentIds, encoding.getSegmentIds());
+    }
+
+    @Test
+    void encodePair() {
+        String query = "要求：有责任心、爱心、耐心，有教师资格证或工作经验的优先入用";
+        String doc = "美甲。地址: message:StatefulSet milk";
+
+        // 超长时按 longest_first 裁剪, 总长度不超过 maxSeqLength
+        IntEncoding encoding = fullTokenizer.encodePair(query, doc, 16);
+        assertEquals(16, encoding.length());
+        assertEquals(fullTokenizer.encodeToken("[CLS]"), encoding.getInputId(0));
+        assertEquals(fullTokenizer.encodeToken("[SEP]"), encoding.getInputId(15));
+        assertEquals(7, Arrays.stream(encoding.getSegmentIds()).sum());
+
+        // List<Integer> 接口与 int[] 接口结果一致
+        Encoding listEncoding = fullTokenizer.tokenizePair(query, doc, 16);
+        assertArrayEquals(encoding.getInputIds(), listEncoding.getInputIds().stream().mapToInt(Integer::intValue).toArray());
+        assertArrayEquals(encoding.getInputMask(), listEncoding.getInputMask().stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    @Test
+    void encodeBatchPairs() {
+        String query = "美甲";
+        List<String> docs = Arrays.asList("要求：有责任心、爱心、耐心", "地址: message:StatefulSet milk", "");
+
+        // 动态 padding: seqLength 为本批最长序列的长度
+        BatchEncoding batch = fullTokenizer.encodeBatchPairs(query, docs, 64, true);
+        assertEquals(3, batch.getBatchSize());
+        for (int i = 0; i < docs.size(); i++) {
+            IntEncoding encoding = fullTokenizer.encodePair(query, docs.get(i), 64);
+            for (int j = 0; j < batch.getSeqLength(); j++) {
+                int k = i * batch.getSeqLength() + j;
+                assertEquals(encoding.getInputId(j), batch.getInputIds()[k]);
+                assertEquals(encoding.getInputMask(j), batch.getInputMask()[k]);
+                assertEquals(encoding.getSegmentId(j), batch.getSegmentIds()[k]);
+            }
+            assertEquals(0, encoding.getInputMask(batch.getSeqLength()));
+        }
+    }
+
+    @Test
+    void encodeMultiPairsParallel() throws Exception {
+        String query = "要求：有责任心、爱心\uD83D\uDC97、耐心";
+        List<String> docs = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            docs.add("美甲" + i + "。地址: message:StatefulSet milk[PAD] 有教师资格证或工作经验的优先入用" + i);
+        }
+
+        // 并行结果与串行结果一致, 顺序不变
+        List<IntEncoding> expected = fullTokenizer.encodeMultiPairs(query, docs, 32);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<IntEncoding> actual = fullTokenizer.encodeMultiPairs(query, docs, 32, pool);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < docs.size(); i++) {
+                assertArrayEquals(expected.get(i).getInputIds(), actual.get(i).getInputIds());
+                assertArrayEquals(expected.get(i).getSegmentIds(), actual.get(i).getSegmentIds());
+            }
+
+            // 多线程并发调用同一个实例
+            List<Future<int[]>> futures = new ArrayList<>();
+            for (String doc : docs) {
+                futures.add(pool.submit(() -> fullTokenizer.tokenizeToIds(doc)));
+            }
+            for (int i = 0; i < docs.size(); i++) {
+                assertArrayEquals(fullTokenizer.tokenizeToIds(docs.get(i)), futures.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,56 @@
+package com.helipy.text.hfberttokenizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Pack:       com.helipy.text.hfberttokenizer
+ * File:       VocabTest
+ * Desc:
+ *
+ * @author wangchuangfeng
+ */
+class VocabTest {
+
+    @Test
+    void compileAndOpen() throws Exception {
+        String vocabPath = "src/test/resources/bert/vocab.txt";
+        File compiled = File.createTempFile("vocab", ".bin");
+        compiled.deleteOnExit();
+        VocabCompiler.compile(vocabPath, compiled.getPath());
+
+        Vocab text = Vocab.load(vocabPath);
+        Vocab mapped = Vocab.open(compiled.getPath());
+        assertEquals(text.size(), mapped.size());
+        for (int id = 0; id < text.size(); id++) {
+            String token = text.getToken(id);
+            assertEquals(token, mapped.getToken(id));
+            assertEquals(text.getId(token), mapped.getId(token));
+        }
+        assertEquals(WordPieceTrie.NONE, mapped.getId("不在词表中的词"));
+        assertNull(mapped.getToken(mapped.size()));
+        // 区间查询, continuation 为 true 时查询 "##" + 区间
+        assertEquals(mapped.getId("##able"), mapped.getId("unaffable", 5, 9, true));
+        assertEquals(mapped.getId("able"), mapped.getId("unaffable", 5, 9, false));
+        // 单字符 token 查字符表
+        assertEquals(text.getId("美"), mapped.getCharId('美'));
+        assertEquals(text.getId("美"), mapped.getCodePointId('美'));
+        assertEquals(WordPieceTrie.NONE, mapped.getCodePointId(0x1F485));
+
+        String query = "美甲 unaffable [MASK] ＡＢＣ";
+        FullTokenizer expected = new FullTokenizer(vocabPath, true, true);
+        FullTokenizer actual = new FullTokenizer(mapped, true, true);
+        assertEquals(expected.tokenize(query), actual.tokenize(query));
+        assertEquals(Arrays.toString(expected.tokenizeToIds(query)), Arrays.toString(actual.tokenizeToIds(query)));
+
+        // 编译词表带有失败链接, 可直接用于 LinMaxMatch
+        WordPieceTokenizer linMaxMatch = new WordPieceTokenizer(mapped, 200, "[UNK]", true);
+        WordPieceTokenizer greedy = new WordPieceTokenizer(text, 200, "[UNK]", false);
+        assertEquals(greedy.tokenize("unaffable statefulset"), linMaxMatch.tokenize("unaffable statefulset"));
+    }
+}
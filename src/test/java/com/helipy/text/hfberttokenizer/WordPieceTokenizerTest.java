@@ -0,0 +1,73 @@
+package com.helipy.text.hfberttokenizer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Pack:       com.helipy.text.hfberttokenizer
+ * File:       WordPieceTokenizerTest
+ * Desc:
+ *
+ * @author wangchuangfeng
+ */
+class WordPieceTokenizerTest {
+    private Map<String, Integer> vocab;
+    private WordPieceTokenizer greedyTokenizer;
+    private WordPieceTokenizer linMaxMatchTokenizer;
+
+    @BeforeEach
+    void init() {
+        vocab = new Preprocess().load("src/test/resources/bert/vocab.txt");
+        greedyTokenizer = new WordPieceTokenizer(vocab, 200, "[UNK]");
+        linMaxMatchTokenizer = new WordPieceTokenizer(vocab, 200, "[UNK]", true);
+    }
+
+    @Test
+    void tokenize() {
+        assertEquals(greedyTokenizer.tokenize("statefulset milk"), linMaxMatchTokenizer.tokenize("statefulset milk"));
+        // 词表中没有 unkToken 时构造失败
+        assertThrows(IllegalArgumentException.class, () -> new WordPieceTokenizer(vocab, 200, "<unk>"));
+    }
+
+    @Test
+    void linMaxMatchParity() {
+        List<String> words = new ArrayList<>(Arrays.asList(
+                "unaffable", "##", "###", "#a", "a##b", "https://example.com/a?b=c", "QmFzZTY0YmxvYg==",
+                "sku20230314x9y8z7", "美甲", "💅🏻"));
+
+        Random random = new Random(20240314L);
+        List<String> keys = new ArrayList<>(vocab.keySet());
+        String alphabet = "abcdefghijklmnopqrstuvwxyz0123456789#=+/";
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder sb = new StringBuilder();
+            if (i % 2 == 0) {
+                // 词表片段拼接
+                int n = 1 + random.nextInt(5);
+                for (int j = 0; j < n; j++) {
+                    String token = keys.get(random.nextInt(keys.size()));
+                    sb.append(j > 0 && token.startsWith("##") ? token.substring(2) : token);
+                }
+            } else {
+                // 随机字母数字串, 模拟编码/链接等病态输入
+                int n = 1 + random.nextInt(120);
+                for (int j = 0; j < n; j++) {
+                    sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+            words.add(sb.toString());
+        }
+
+        for (String word : words) {
+            assertEquals(greedyTokenizer.tokenize(word), linMaxMatchTokenizer.tokenize(word), word);
+        }
+    }
+}